@@ -0,0 +1,225 @@
+package carpet.bench;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.GameType;
+import net.minecraft.world.MinecraftException;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkPrimer;
+import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraft.world.gen.structure.template.TemplateManager;
+import net.minecraft.world.storage.IPlayerFileData;
+import net.minecraft.world.storage.ISaveHandler;
+import net.minecraft.world.storage.WorldInfo;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * Server side world for benchmarks. Chunks are flat stone generated in memory,
+ * nothing is ever saved and there is no server, player or client involved.
+ */
+public class BenchmarkWorld extends World
+{
+    public static final int FLOOR = 4;
+
+    static
+    {
+        Bootstrap.register();
+    }
+
+    private final Long2ObjectMap<Chunk> chunks = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Creates a world with all chunks within <code>radius</code> chunks of the origin loaded.
+     */
+    public BenchmarkWorld(int radius)
+    {
+        super(new NullSaveHandler(), new WorldInfo(new WorldSettings(0L, GameType.CREATIVE, false, false, WorldType.FLAT), "benchmark"),
+                DimensionType.OVERWORLD.createDimension(), new Profiler(), false);
+        this.provider.setWorld(this);
+        this.chunkProvider = this.createChunkProvider();
+        this.getGameRules().setOrCreateGameRule("doTileDrops", "false");
+        for (int x = -radius; x <= radius; x++)
+        {
+            for (int z = -radius; z <= radius; z++)
+            {
+                this.getChunk(x, z);
+            }
+        }
+    }
+
+    /**
+     * Sets every block in the box between the two corners, without neighbour updates.
+     */
+    public void fill(BlockPos from, BlockPos to, IBlockState state)
+    {
+        for (BlockPos pos : BlockPos.getAllInBoxMutable(from, to))
+        {
+            this.setBlockState(pos, state, 2);
+        }
+    }
+
+    @Override
+    protected IChunkProvider createChunkProvider()
+    {
+        return new IChunkProvider()
+        {
+            @Nullable
+            @Override
+            public Chunk getLoadedChunk(int x, int z)
+            {
+                return chunks.get(ChunkPos.asLong(x, z));
+            }
+
+            @Override
+            public Chunk provideChunk(int x, int z)
+            {
+                Chunk chunk = chunks.get(ChunkPos.asLong(x, z));
+                if (chunk == null)
+                {
+                    chunk = generate(x, z);
+                }
+                return chunk;
+            }
+
+            @Override
+            public boolean tick()
+            {
+                return false;
+            }
+
+            @Override
+            public String makeString()
+            {
+                return "BenchmarkChunkCache: " + chunks.size();
+            }
+
+            @Override
+            public boolean isChunkGeneratedAt(int x, int z)
+            {
+                return chunks.containsKey(ChunkPos.asLong(x, z));
+            }
+        };
+    }
+
+    private Chunk generate(int x, int z)
+    {
+        ChunkPrimer primer = new ChunkPrimer();
+        for (int bx = 0; bx < 16; bx++)
+        {
+            for (int bz = 0; bz < 16; bz++)
+            {
+                primer.setBlockState(bx, 0, bz, Blocks.BEDROCK.getDefaultState());
+                for (int y = 1; y < FLOOR; y++)
+                {
+                    primer.setBlockState(bx, y, bz, Blocks.STONE.getDefaultState());
+                }
+            }
+        }
+        Chunk chunk = new Chunk(this, primer, x, z);
+        chunk.generateSkylightMap();
+        chunks.put(ChunkPos.asLong(x, z), chunk);
+        chunk.onLoad();
+        return chunk;
+    }
+
+    @Override
+    protected boolean isChunkLoaded(int x, int z, boolean allowEmpty)
+    {
+        return chunks.containsKey(ChunkPos.asLong(x, z));
+    }
+
+    private static class NullSaveHandler implements ISaveHandler
+    {
+        @Nullable
+        @Override
+        public WorldInfo loadWorldInfo()
+        {
+            return null;
+        }
+
+        @Override
+        public void checkSessionLock() throws MinecraftException
+        {
+        }
+
+        @Override
+        public IChunkLoader getChunkLoader(WorldProvider provider)
+        {
+            return null;
+        }
+
+        @Override
+        public void saveWorldInfoWithPlayer(WorldInfo worldInformation, NBTTagCompound tagCompound)
+        {
+        }
+
+        @Override
+        public void saveWorldInfo(WorldInfo worldInformation)
+        {
+        }
+
+        @Override
+        public IPlayerFileData getPlayerNBTManager()
+        {
+            return new IPlayerFileData()
+            {
+                @Override
+                public void writePlayerData(EntityPlayer player)
+                {
+                }
+
+                @Nullable
+                @Override
+                public NBTTagCompound readPlayerData(EntityPlayer player)
+                {
+                    return null;
+                }
+
+                @Override
+                public String[] getAvailablePlayerDat()
+                {
+                    return new String[0];
+                }
+            };
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public File getWorldDirectory()
+        {
+            return null;
+        }
+
+        @Override
+        public File getMapFileFromName(String mapName)
+        {
+            return null;
+        }
+
+        @Override
+        public TemplateManager getStructureTemplateManager()
+        {
+            return null;
+        }
+    }
+}
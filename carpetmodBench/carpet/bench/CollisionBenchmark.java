@@ -0,0 +1,68 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects collision boxes for an item moving through a mix of full blocks,
+ * slabs and fences, as done for every moving entity every tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CollisionBenchmark
+{
+    @Param({"false", "true"})
+    public boolean blockCollisionsOptimization;
+
+    @Param({"1", "4"})
+    public int reach;
+
+    private BenchmarkWorld world;
+    private EntityItem item;
+    private AxisAlignedBB box;
+
+    @Setup
+    public void setup()
+    {
+        CarpetSettings.blockCollisionsOptimization = blockCollisionsOptimization;
+        world = new BenchmarkWorld(1);
+        IBlockState[] states = {Blocks.STONE.getDefaultState(), Blocks.STONE_SLAB.getDefaultState(), Blocks.OAK_FENCE.getDefaultState(), Blocks.AIR.getDefaultState()};
+        int i = 0;
+        for (BlockPos pos : BlockPos.getAllInBoxMutable(new BlockPos(0, BenchmarkWorld.FLOOR, 0), new BlockPos(15, BenchmarkWorld.FLOOR + 8, 15)))
+        {
+            world.setBlockState(pos, states[i++ % states.length], 2);
+        }
+        item = new EntityItem(world, 8.5D, BenchmarkWorld.FLOOR + 4, 8.5D, new ItemStack(Items.DIAMOND));
+        box = item.getEntityBoundingBox().grow(reach);
+    }
+
+    @Benchmark
+    public List<AxisAlignedBB> collisionBoxes()
+    {
+        return world.getCollisionBoxes(item, box);
+    }
+}
@@ -0,0 +1,151 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.item.EntityTNTPrimed;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.Explosion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One TNT exploding inside a stack of primed TNT on the stone floor, the
+ * typical situation in a cannon. The world is rebuilt before every explosion.
+ * The setup fails if a volley of TNT leaves different blocks, TNT motion or
+ * drops with optimizedTNTBatching than without it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExplosionBenchmark
+{
+    @Param({"false", "true"})
+    public boolean optimizedTNT;
+
+    @Param({"1", "100"})
+    public int stack;
+
+    private Explosion explosion;
+
+    @Setup(Level.Trial)
+    public void setupRules()
+    {
+        verifyBatching();
+        CarpetSettings.optimizedTNT = optimizedTNT;
+    }
+
+    @Setup(Level.Invocation)
+    public void setup()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(1);
+        EntityTNTPrimed first = null;
+        for (int i = 0; i < stack; i++)
+        {
+            EntityTNTPrimed tnt = new EntityTNTPrimed(world, 8.5D, BenchmarkWorld.FLOOR, 8.5D, null);
+            world.spawnEntity(tnt);
+            if (first == null)
+            {
+                first = tnt;
+            }
+        }
+        first.setDead();
+        explosion = new Explosion(world, first, first.posX, first.posY, first.posZ, 4.0F, false, true);
+    }
+
+    @Benchmark
+    public Explosion explode()
+    {
+        explosion.doExplosionA();
+        explosion.doExplosionB(false);
+        return explosion;
+    }
+
+    /**
+     * Fires the same volley with optimizedTNTBatching off and on, each in a new world, and compares
+     * what is left. A third of the TNT explodes in water, where the caches are shared between the
+     * explosions, a third breaks stone and drops it, and a third explodes on obsidian, where the
+     * explosions also follow the rays of the previous one.
+     */
+    private static void verifyBatching()
+    {
+        CarpetSettings.optimizedTNT = true;
+        CarpetSettings.optimizedTNTBatching = false;
+        List<String> expected = fireVolley();
+        CarpetSettings.optimizedTNTBatching = true;
+        List<String> actual = fireVolley();
+        CarpetSettings.optimizedTNTBatching = false;
+        if (expected.size() != actual.size())
+        {
+            throw new IllegalStateException("Batched explosions left " + actual.size() + " blocks and entities instead of " + expected.size());
+        }
+        for (int i = 0; i < expected.size(); i++)
+        {
+            if (!expected.get(i).equals(actual.get(i)))
+            {
+                throw new IllegalStateException("Batched explosions left " + actual.get(i) + " instead of " + expected.get(i));
+            }
+        }
+    }
+
+    private static List<String> fireVolley()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(2);
+        world.getGameRules().setOrCreateGameRule("doTileDrops", "true");
+        world.fill(new BlockPos(0, BenchmarkWorld.FLOOR, 0), new BlockPos(7, BenchmarkWorld.FLOOR + 2, 15), Blocks.WATER.getDefaultState());
+        world.fill(new BlockPos(8, BenchmarkWorld.FLOOR, 0), new BlockPos(15, BenchmarkWorld.FLOOR + 2, 15), Blocks.STONE.getDefaultState());
+        world.fill(new BlockPos(16, BenchmarkWorld.FLOOR, 0), new BlockPos(23, BenchmarkWorld.FLOOR + 2, 15), Blocks.OBSIDIAN.getDefaultState());
+        // TNT and drops get a random motion
+        world.rand.setSeed(0L);
+        List<EntityTNTPrimed> volley = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+        {
+            EntityTNTPrimed tnt = i < 10
+                    ? new EntityTNTPrimed(world, 4.5D, BenchmarkWorld.FLOOR + 1, 8.5D, null)
+                    : new EntityTNTPrimed(world, 4.5D + 8 * (i / 10), BenchmarkWorld.FLOOR + 3, 8.5D, null);
+            world.spawnEntity(tnt);
+            volley.add(tnt);
+        }
+        for (EntityTNTPrimed tnt : volley)
+        {
+            tnt.setDead();
+            Explosion explosion = new Explosion(world, tnt, tnt.posX, tnt.posY, tnt.posZ, 4.0F, false, true);
+            explosion.doExplosionA();
+            explosion.doExplosionB(false);
+        }
+
+        List<String> result = new ArrayList<>();
+        for (BlockPos pos : BlockPos.getAllInBoxMutable(new BlockPos(-8, 0, -8), new BlockPos(31, BenchmarkWorld.FLOOR + 12, 23)))
+        {
+            result.add(pos + " " + world.getBlockState(pos));
+        }
+        for (Entity entity : world.loadedEntityList)
+        {
+            if (entity instanceof EntityTNTPrimed || entity instanceof EntityItem)
+            {
+                String name = entity instanceof EntityItem ? ((EntityItem) entity).getItem().toString() : "tnt";
+                result.add(name + " at " + entity.posX + ", " + entity.posY + ", " + entity.posZ
+                        + " moving " + entity.motionX + ", " + entity.motionY + ", " + entity.motionZ);
+            }
+        }
+        return result;
+    }
+}
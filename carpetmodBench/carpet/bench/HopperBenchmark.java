@@ -0,0 +1,87 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.block.BlockHopper;
+import net.minecraft.init.Blocks;
+import net.minecraft.init.Items;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntityChest;
+import net.minecraft.tileentity.TileEntityHopper;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks a line of hoppers passing items into a chest, one transfer cycle
+ * (8 game ticks) per invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HopperBenchmark
+{
+    private static final int TICKS = 8;
+
+    @Param({"false", "true"})
+    public boolean optimizedTileEntities;
+
+    @Param({"32"})
+    public int length;
+
+    private BenchmarkWorld world;
+    private TileEntityHopper[] hoppers;
+    private TileEntityChest chest;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        CarpetSettings.optimizedTileEntities = optimizedTileEntities;
+        world = new BenchmarkWorld(3);
+        hoppers = new TileEntityHopper[length];
+        for (int i = 0; i < length; i++)
+        {
+            BlockPos pos = new BlockPos(i, BenchmarkWorld.FLOOR, 0);
+            world.setBlockState(pos, Blocks.HOPPER.getDefaultState().withProperty(BlockHopper.FACING, EnumFacing.EAST), 2);
+            hoppers[i] = (TileEntityHopper) world.getTileEntity(pos);
+        }
+        BlockPos end = new BlockPos(length, BenchmarkWorld.FLOOR, 0);
+        world.setBlockState(end, Blocks.CHEST.getDefaultState(), 2);
+        chest = (TileEntityChest) world.getTileEntity(end);
+    }
+
+    @Setup(Level.Invocation)
+    public void refill()
+    {
+        hoppers[0].setInventorySlotContents(0, new ItemStack(Items.IRON_INGOT, 64));
+        chest.clear();
+    }
+
+    @Benchmark
+    public void transfer()
+    {
+        for (int t = 0; t < TICKS; t++)
+        {
+            world.setTotalWorldTime(world.getTotalWorldTime() + 1);
+            for (TileEntityHopper hopper : hoppers)
+            {
+                hopper.update();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import carpet.helpers.EntityMergeIndex;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.init.Items;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of every item at a mob farm drop point looking for others to merge with, 2000 items of
+ * kinds that don't stack, spread over a few blocks at the corner of four chunks. The lookups go
+ * through EntityMergeIndex, which is World.getEntitiesWithinAABB unless optimizedItemMerging is on,
+ * and the setup fails if both don't find the same items in the same order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ItemMergeBenchmark
+{
+    private static final int ITEMS = 2000;
+    private static final Item[] DROPS = {Items.ROTTEN_FLESH, Items.BONE, Items.ARROW, Items.GUNPOWDER, Items.STRING, Items.SPIDER_EYE};
+
+    @Param({"false", "true"})
+    public boolean optimizedItemMerging;
+
+    private BenchmarkWorld world;
+    private final List<EntityItem> items = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        world = new BenchmarkWorld(1);
+        Random random = new Random(0);
+        for (int i = 0; i < ITEMS; i++)
+        {
+            double x = random.nextDouble() * 6.0D - 3.0D;
+            double z = random.nextDouble() * 6.0D - 3.0D;
+            EntityItem item = new EntityItem(world, x, BenchmarkWorld.FLOOR + 1, z, new ItemStack(DROPS[i % DROPS.length]));
+            world.spawnEntity(item);
+            items.add(item);
+        }
+
+        CarpetSettings.optimizedItemMerging = false;
+        List<List<EntityItem>> expected = new ArrayList<>();
+        for (EntityItem item : items)
+        {
+            expected.add(lookup(item));
+        }
+        CarpetSettings.optimizedItemMerging = true;
+        for (int i = 0; i < ITEMS; i++)
+        {
+            if (!expected.get(i).equals(lookup(items.get(i))))
+            {
+                throw new IllegalStateException("Spatial hash found different items for item " + i);
+            }
+        }
+        CarpetSettings.optimizedItemMerging = optimizedItemMerging;
+    }
+
+    @Benchmark
+    public int tick()
+    {
+        // a new tick, so the spatial hash is built again
+        world.getWorldInfo().setWorldTotalTime(world.getTotalWorldTime() + 1);
+        int found = 0;
+        for (EntityItem item : items)
+        {
+            found += lookup(item).size();
+        }
+        return found;
+    }
+
+    private List<EntityItem> lookup(EntityItem item)
+    {
+        return EntityMergeIndex.getEntitiesWithinAABB(world, EntityItem.class, item.getEntityBoundingBox().grow(0.5D, 0.0D, 0.5D));
+    }
+}
@@ -0,0 +1,134 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills and clears a few distant boxes of stone and lets newLight catch up,
+ * like a large world edit would. The boxes are far enough apart to be
+ * processed in parallel when newLightParallel is on. The setup fails if
+ * both don't leave the same sky and block light around the boxes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LightingBenchmark
+{
+    private static final int BOXES = 4;
+    private static final int SPACING = 6 * 16;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private BenchmarkWorld world;
+
+    @Setup
+    public void setup()
+    {
+        CarpetSettings.newLight = true;
+        verifyDeterminism();
+
+        CarpetSettings.newLightParallel = parallel;
+        world = createWorld();
+    }
+
+    private static BenchmarkWorld createWorld()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(BOXES * SPACING / 16 + 1);
+        world.lightingEngine.procLightUpdates();
+        return world;
+    }
+
+    private static void fill(BenchmarkWorld world, boolean solid)
+    {
+        for (int i = 0; i < BOXES; i++)
+        {
+            BlockPos from = new BlockPos(i * SPACING, BenchmarkWorld.FLOOR, 0);
+            world.fill(from, from.add(15, 31, 15), solid ? Blocks.STONE.getDefaultState() : Blocks.AIR.getDefaultState());
+        }
+        world.lightingEngine.procLightUpdates();
+    }
+
+    @Benchmark
+    public void fillAndClear()
+    {
+        fill(world, true);
+        fill(world, false);
+    }
+
+    /**
+     * Fills and clears the boxes in one world with the serial engine and in another with the
+     * parallel one, and compares the light of the chunks of the boxes and the chunks around them
+     * after each step.
+     */
+    private static void verifyDeterminism()
+    {
+        CarpetSettings.newLightParallel = false;
+        BenchmarkWorld serial = createWorld();
+        CarpetSettings.newLightParallel = true;
+        BenchmarkWorld parallel = createWorld();
+        for (boolean solid : new boolean[]{true, false})
+        {
+            CarpetSettings.newLightParallel = false;
+            fill(serial, solid);
+            CarpetSettings.newLightParallel = true;
+            fill(parallel, solid);
+            for (int i = 0; i < BOXES; i++)
+            {
+                int boxChunkX = i * SPACING >> 4;
+                for (int chunkX = boxChunkX - 1; chunkX <= boxChunkX + 1; chunkX++)
+                {
+                    for (int chunkZ = -1; chunkZ <= 1; chunkZ++)
+                    {
+                        compareLight(serial.getChunk(chunkX, chunkZ), parallel.getChunk(chunkX, chunkZ), solid);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void compareLight(Chunk expected, Chunk actual, boolean solid)
+    {
+        ExtendedBlockStorage[] expectedSections = expected.getBlockStorageArray();
+        ExtendedBlockStorage[] actualSections = actual.getBlockStorageArray();
+        for (int i = 0; i < expectedSections.length; i++)
+        {
+            ExtendedBlockStorage expectedSection = expectedSections[i];
+            ExtendedBlockStorage actualSection = actualSections[i];
+            if ((expectedSection == Chunk.NULL_BLOCK_STORAGE) != (actualSection == Chunk.NULL_BLOCK_STORAGE))
+            {
+                throw new IllegalStateException("Parallel light created different sections in chunk " + expected.x + ", " + expected.z);
+            }
+            if (expectedSection == Chunk.NULL_BLOCK_STORAGE)
+            {
+                continue;
+            }
+            boolean skyDiffers = expectedSection.getSkyLight() != null && !Arrays.equals(expectedSection.getSkyLight().getData(), actualSection.getSkyLight().getData());
+            if (skyDiffers || !Arrays.equals(expectedSection.getBlockLight().getData(), actualSection.getBlockLight().getData()))
+            {
+                throw new IllegalStateException("Parallel light differs in section " + i + " of chunk " + expected.x + ", " + expected.z
+                        + " after " + (solid ? "filling" : "clearing") + " the boxes");
+            }
+        }
+    }
+}
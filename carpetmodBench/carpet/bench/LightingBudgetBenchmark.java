@@ -0,0 +1,136 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.chunk.Chunk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the tick after a large edit with newLightTickBudget on: the budgeted
+ * pass plus a light read inside one of the edited boxes, as a random tick or
+ * mob spawning attempt would do. With <code>localReads</code> off the read
+ * first flushes the whole backlog, like reads did before they only processed
+ * the updates around them. The setup fails if a local read sees a different
+ * light value than a fully flushed world.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LightingBudgetBenchmark
+{
+    private static final int BOXES = 4;
+    private static final int SPACING = 6 * 16;
+    private static final int BUDGET_MICROS = 2000;
+    private static final BlockPos READ_POS = new BlockPos(8, BenchmarkWorld.FLOOR + 40, 8);
+
+    @Param({"false", "true"})
+    public boolean localReads;
+
+    private BenchmarkWorld world;
+    private boolean solid;
+
+    @Setup
+    public void setup()
+    {
+        CarpetSettings.newLight = true;
+        CarpetSettings.newLightParallel = false;
+        CarpetSettings.newLightTickBudget = BUDGET_MICROS;
+        verifyLocalReads();
+
+        world = createWorld();
+    }
+
+    /**
+     * Settles the previous edit outside of the measurement and makes the next one.
+     */
+    @Setup(Level.Invocation)
+    public void edit()
+    {
+        world.lightingEngine.procLightUpdates();
+        solid = !solid;
+        fill(world, solid);
+    }
+
+    @Benchmark
+    public int worstTick()
+    {
+        world.lightingEngine.procLightUpdatesBudgeted(BUDGET_MICROS * 1000L);
+        if (!localReads)
+        {
+            world.lightingEngine.procLightUpdates();
+        }
+        return world.getChunk(READ_POS).getLightSubtracted(READ_POS, 0);
+    }
+
+    private static BenchmarkWorld createWorld()
+    {
+        BenchmarkWorld world = new BenchmarkWorld(BOXES * SPACING / 16 + 2);
+        world.lightingEngine.procLightUpdates();
+        return world;
+    }
+
+    private static void fill(BenchmarkWorld world, boolean solid)
+    {
+        for (int i = 0; i < BOXES; i++)
+        {
+            BlockPos from = new BlockPos(i * SPACING, BenchmarkWorld.FLOOR, 0);
+            world.fill(from, from.add(31, 63, 31), solid ? Blocks.STONE.getDefaultState() : Blocks.AIR.getDefaultState());
+        }
+    }
+
+    /**
+     * Fills and clears the boxes in two worlds, reading the chunk of the first
+     * box after a single budgeted batch in one and after a full flush in the
+     * other. Every read must agree, and the far boxes must still be queued in
+     * the first world afterwards.
+     */
+    private static void verifyLocalReads()
+    {
+        BenchmarkWorld local = createWorld();
+        BenchmarkWorld flushed = createWorld();
+        for (boolean solid : new boolean[]{true, false})
+        {
+            fill(local, solid);
+            local.lightingEngine.procLightUpdatesBudgeted(0L);
+            fill(flushed, solid);
+            flushed.lightingEngine.procLightUpdates();
+
+            Chunk localChunk = local.getChunk(READ_POS);
+            Chunk flushedChunk = flushed.getChunk(READ_POS);
+            for (BlockPos pos : BlockPos.getAllInBoxMutable(new BlockPos(0, 0, 0), new BlockPos(15, BenchmarkWorld.FLOOR + 80, 15)))
+            {
+                for (EnumSkyBlock type : EnumSkyBlock.values())
+                {
+                    if (localChunk.getLightFor(type, pos) != flushedChunk.getLightFor(type, pos))
+                    {
+                        throw new IllegalStateException("Local read of " + type + " light at " + pos + " differs after "
+                                + (solid ? "filling" : "clearing") + " the boxes");
+                    }
+                }
+            }
+            if (!local.lightingEngine.hasLightUpdates())
+            {
+                throw new IllegalStateException("Local read processed the updates of distant boxes");
+            }
+            local.lightingEngine.procLightUpdates();
+        }
+    }
+}
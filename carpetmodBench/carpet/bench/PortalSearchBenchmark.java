@@ -0,0 +1,137 @@
+package carpet.bench;
+
+import carpet.helpers.PortalIndex;
+import net.minecraft.block.BlockPortal;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the portal to teleport to from a spot without a cached link, in a world with a few dozen
+ * portals of different sizes and heights. scan is the search of Teleporter.placeInExistingPortal,
+ * index is PortalIndex, which portalCaching uses. The setup fails if both don't find the same portal
+ * for every spot, including spots where several portals are as near.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PortalSearchBenchmark
+{
+    private static final int PORTALS = 40;
+    private static final int SPOTS = 64;
+
+    @Param({"scan", "index"})
+    public String search;
+
+    private BenchmarkWorld world;
+    private final BlockPos[] spots = new BlockPos[SPOTS];
+
+    @Setup
+    public void setup()
+    {
+        world = new BenchmarkWorld(10);
+        Random random = new Random(0);
+        for (int i = 0; i < PORTALS; i++)
+        {
+            int x = random.nextInt(256) - 128;
+            int y = BenchmarkWorld.FLOOR + random.nextInt(100);
+            int z = random.nextInt(256) - 128;
+            buildPortal(new BlockPos(x, y, z), random.nextBoolean() ? EnumFacing.Axis.X : EnumFacing.Axis.Z, 2 + random.nextInt(3), 3 + random.nextInt(3));
+        }
+        // two portals as near to the origin as each other
+        buildPortal(new BlockPos(3, 30, 0), EnumFacing.Axis.Z, 2, 3);
+        buildPortal(new BlockPos(-3, 30, 0), EnumFacing.Axis.Z, 2, 3);
+
+        for (int i = 0; i < SPOTS; i++)
+        {
+            spots[i] = i == 0 ? new BlockPos(0, 30, 0) : new BlockPos(random.nextInt(32) - 16, BenchmarkWorld.FLOOR + random.nextInt(120), random.nextInt(32) - 16);
+        }
+        for (BlockPos spot : spots)
+        {
+            if (!Objects.equals(scan(spot), PortalIndex.findNearestPortal(world, spot)))
+            {
+                throw new IllegalStateException("Portal index found a different portal from " + spot);
+            }
+        }
+    }
+
+    @Benchmark
+    public int find()
+    {
+        boolean index = "index".equals(search);
+        int found = 0;
+        for (BlockPos spot : spots)
+        {
+            BlockPos portal = index ? PortalIndex.findNearestPortal(world, spot) : scan(spot);
+            if (portal != null)
+            {
+                found += portal.getY();
+            }
+        }
+        return found;
+    }
+
+    private void buildPortal(BlockPos corner, EnumFacing.Axis axis, int width, int height)
+    {
+        EnumFacing facing = axis == EnumFacing.Axis.X ? EnumFacing.EAST : EnumFacing.SOUTH;
+        for (int w = 0; w < width; w++)
+        {
+            for (int h = 0; h < height; h++)
+            {
+                world.setBlockState(corner.offset(facing, w).up(h), Blocks.PORTAL.getDefaultState().withProperty(BlockPortal.AXIS, axis), 2);
+            }
+        }
+    }
+
+    /**
+     * The search of Teleporter.placeInExistingPortal.
+     */
+    private BlockPos scan(BlockPos origin)
+    {
+        double distance = -1.0D;
+        BlockPos found = null;
+        for (int x = -128; x <= 128; ++x)
+        {
+            BlockPos below;
+            for (int z = -128; z <= 128; ++z)
+            {
+                for (BlockPos pos = origin.add(x, world.getActualHeight() - 1 - origin.getY(), z); pos.getY() >= 0; pos = below)
+                {
+                    below = pos.down();
+                    if (world.getBlockState(pos).getBlock() == Blocks.PORTAL)
+                    {
+                        for (below = pos.down(); world.getBlockState(below).getBlock() == Blocks.PORTAL; below = below.down())
+                        {
+                            pos = below;
+                        }
+                        double d = pos.distanceSq(origin);
+                        if (distance < 0.0D || d < distance)
+                        {
+                            distance = d;
+                            found = pos;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
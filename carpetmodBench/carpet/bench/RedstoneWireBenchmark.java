@@ -0,0 +1,56 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Powers and unpowers a plate of redstone dust from one corner, which is the
+ * worst case for the amount of updates the dust algorithm sends around.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RedstoneWireBenchmark
+{
+    @Param({"vanilla", "fast"})
+    public String algorithm;
+
+    @Param({"8", "16"})
+    public int size;
+
+    private BenchmarkWorld world;
+    private BlockPos source;
+
+    @Setup
+    public void setup()
+    {
+        CarpetSettings.redstoneDustAlgorithm = CarpetSettings.RedstoneDustAlgorithm.valueOf(algorithm);
+        world = new BenchmarkWorld(2);
+        world.fill(new BlockPos(0, BenchmarkWorld.FLOOR, 0), new BlockPos(size - 1, BenchmarkWorld.FLOOR, size - 1), Blocks.REDSTONE_WIRE.getDefaultState());
+        source = new BlockPos(-1, BenchmarkWorld.FLOOR, 0);
+    }
+
+    @Benchmark
+    public void toggleSource()
+    {
+        world.setBlockState(source, Blocks.REDSTONE_BLOCK.getDefaultState());
+        world.setBlockState(source, Blocks.AIR.getDefaultState());
+    }
+}
@@ -0,0 +1,181 @@
+package carpet.bench;
+
+import carpet.CarpetSettings;
+import carpet.helpers.RedstoneWireTurbo;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockRedstoneWire;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Powers and unpowers a plate of redstone dust from one corner with the fast dust algorithm alone,
+ * without the block updates of placing the power source. reference is RedstoneWireTurbo before its
+ * update graph was pooled, pooled is RedstoneWireTurbo. Run with -prof gc to see the allocations.
+ * The setup fails if both don't change and update the same blocks in the same order on a plate with
+ * holes, slopes and wire that can't stay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RedstoneWireTurboBenchmark
+{
+    private static final BlockRedstoneWire WIRE = (BlockRedstoneWire) Blocks.REDSTONE_WIRE;
+
+    @Param({"reference", "pooled"})
+    public String turbo;
+
+    @Param({"8", "16"})
+    public int size;
+
+    private BenchmarkWorld world;
+    private Toggle toggle;
+    private final BlockPos source = new BlockPos(-1, BenchmarkWorld.FLOOR, 0);
+    private final BlockPos corner = new BlockPos(0, BenchmarkWorld.FLOOR, 0);
+
+    private interface Toggle
+    {
+        IBlockState update(BenchmarkWorld world, BlockPos pos, BlockPos source);
+    }
+
+    /**
+     * Records the block changes and block updates sent by the dust.
+     */
+    private static class TracingWorld extends BenchmarkWorld
+    {
+        final List<String> trace = new ArrayList<>();
+
+        TracingWorld()
+        {
+            super(2);
+        }
+
+        @Override
+        public boolean setBlockState(BlockPos pos, IBlockState state, int flags)
+        {
+            trace.add("set " + pos + " " + state + " " + flags);
+            return super.setBlockState(pos, state, flags);
+        }
+
+        @Override
+        public void neighborChanged(BlockPos pos, Block block, BlockPos fromPos)
+        {
+            trace.add("update " + pos + " from " + fromPos);
+            super.neighborChanged(pos, block, fromPos);
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        // BlockRedstoneWire.calculateCurrentChanges leaves the block updates to the turbo only with fast dust
+        CarpetSettings.redstoneDustAlgorithm = CarpetSettings.RedstoneDustAlgorithm.fast;
+        verifyOrder();
+
+        world = new BenchmarkWorld(2);
+        world.fill(corner, corner.add(size - 1, 0, size - 1), WIRE.getDefaultState());
+        toggle = create(turbo);
+    }
+
+    @Benchmark
+    public void toggleSource()
+    {
+        // placed without block updates, the dust is updated like the source had updated it
+        world.setBlockState(source, Blocks.REDSTONE_BLOCK.getDefaultState(), 2);
+        toggle.update(world, corner, source);
+        world.setBlockState(source, Blocks.AIR.getDefaultState(), 2);
+        toggle.update(world, corner, source);
+    }
+
+    private static Toggle create(String turbo)
+    {
+        if ("reference".equals(turbo))
+        {
+            RedstoneWireTurboReference reference = new RedstoneWireTurboReference(WIRE);
+            return (world, pos, source) -> reference.updateSurroundingRedstone(world, pos, world.getBlockState(pos), source);
+        }
+        RedstoneWireTurbo pooled = new RedstoneWireTurbo(WIRE);
+        return (world, pos, source) -> pooled.updateSurroundingRedstone(world, pos, world.getBlockState(pos), source);
+    }
+
+    /**
+     * Toggles power sources around a plate of dust on both turbos and compares what they did. The
+     * plate has holes, dust going up and down steps, and dust on glass that breaks when it is reached.
+     * Every toggle has a source, otherwise an ambiguous direction of the signal is picked at random.
+     */
+    private static void verifyOrder()
+    {
+        TracingWorld expected = new TracingWorld();
+        TracingWorld actual = new TracingWorld();
+        for (TracingWorld tracing : new TracingWorld[]{expected, actual})
+        {
+            Random random = new Random(0);
+            for (int x = 0; x < 16; x++)
+            {
+                for (int z = 0; z < 16; z++)
+                {
+                    BlockPos pos = new BlockPos(x, BenchmarkWorld.FLOOR, z);
+                    int kind = random.nextInt(12);
+                    if (kind == 0)
+                    {
+                        continue;
+                    }
+                    if (kind == 1)
+                    {
+                        tracing.setBlockState(pos, Blocks.STONE.getDefaultState(), 2);
+                        pos = pos.up();
+                    }
+                    else if (kind == 2)
+                    {
+                        tracing.setBlockState(pos, Blocks.GLASS.getDefaultState(), 2);
+                        pos = pos.up();
+                    }
+                    tracing.setBlockState(pos, WIRE.getDefaultState(), 2);
+                }
+            }
+            tracing.trace.clear();
+        }
+
+        Toggle reference = create("reference");
+        Toggle pooled = create("pooled");
+        Random random = new Random(1);
+        for (int i = 0; i < 40; i++)
+        {
+            BlockPos pos = new BlockPos(random.nextInt(16), BenchmarkWorld.FLOOR, 0);
+            BlockPos source = pos.north();
+            IBlockState state = expected.getBlockState(source).getBlock() == Blocks.REDSTONE_BLOCK ? Blocks.AIR.getDefaultState() : Blocks.REDSTONE_BLOCK.getDefaultState();
+            expected.setBlockState(source, state, 2);
+            actual.setBlockState(source, state, 2);
+            if (expected.getBlockState(pos).getBlock() == WIRE)
+            {
+                reference.update(expected, pos, source);
+                pooled.update(actual, pos, source);
+            }
+            if (!expected.trace.equals(actual.trace))
+            {
+                throw new IllegalStateException("Pooled turbo updated blocks differently at toggle " + i);
+            }
+            expected.trace.clear();
+            actual.trace.clear();
+        }
+    }
+}
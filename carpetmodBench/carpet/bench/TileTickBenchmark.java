@@ -0,0 +1,235 @@
+package carpet.bench;
+
+import carpet.helpers.NextTickListEntryFix;
+import carpet.helpers.TileTickWheel;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.NextTickListEntry;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One game tick of tile ticks with 100k pending, like a large clock build, where every tick that
+ * runs schedules the next one. vanilla is the hash set and tree set of WorldServer, wheel is
+ * TileTickWheel. Before measuring, the setup runs both side by side with random delays, priorities,
+ * duplicates, tick limits and chunk unloads, and fails if they ever disagree on the order. Entries are
+ * created like with doubleTileTickSchedulingFix, without it the vanilla hash set loses entries in bins
+ * with many collisions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TileTickBenchmark
+{
+    private static final int PENDING = 100000;
+    private static final Block[] BLOCKS = {Blocks.UNPOWERED_REPEATER, Blocks.UNPOWERED_COMPARATOR, Blocks.OBSERVER};
+
+    @Param({"vanilla", "wheel"})
+    public String scheduler;
+
+    private Scheduler ticks;
+    private Random random;
+    private long time;
+
+    private interface Scheduler
+    {
+        boolean add(NextTickListEntry entry);
+
+        void poll(long now, boolean all, int limit, List<NextTickListEntry> out);
+
+        List<NextTickListEntry> getEntriesIn(StructureBoundingBox box, boolean remove);
+
+        int size();
+    }
+
+    private static class Wheel extends TileTickWheel implements Scheduler
+    {
+    }
+
+    /**
+     * The tile tick code of WorldServer.
+     */
+    private static class Vanilla implements Scheduler
+    {
+        private final Set<NextTickListEntry> hashSet = new HashSet<>();
+        private final TreeSet<NextTickListEntry> treeSet = new TreeSet<>();
+
+        @Override
+        public boolean add(NextTickListEntry entry)
+        {
+            if (hashSet.contains(entry))
+            {
+                return false;
+            }
+            hashSet.add(entry);
+            treeSet.add(entry);
+            return true;
+        }
+
+        @Override
+        public void poll(long now, boolean all, int limit, List<NextTickListEntry> out)
+        {
+            for (int j = 0; j < limit && !treeSet.isEmpty(); ++j)
+            {
+                NextTickListEntry entry = treeSet.first();
+                if (!all && entry.scheduledTime > now)
+                {
+                    break;
+                }
+                treeSet.remove(entry);
+                hashSet.remove(entry);
+                out.add(entry);
+            }
+        }
+
+        @Override
+        public List<NextTickListEntry> getEntriesIn(StructureBoundingBox box, boolean remove)
+        {
+            List<NextTickListEntry> list = null;
+            Iterator<NextTickListEntry> iterator = treeSet.iterator();
+            while (iterator.hasNext())
+            {
+                NextTickListEntry entry = iterator.next();
+                BlockPos pos = entry.position;
+                if (pos.getX() >= box.minX && pos.getX() < box.maxX && pos.getZ() >= box.minZ && pos.getZ() < box.maxZ)
+                {
+                    if (remove)
+                    {
+                        hashSet.remove(entry);
+                        iterator.remove();
+                    }
+                    if (list == null)
+                    {
+                        list = new ArrayList<>();
+                    }
+                    list.add(entry);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public int size()
+        {
+            return treeSet.size();
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        verifyOrder(new Random(0));
+
+        ticks = "wheel".equals(scheduler) ? new Wheel() : new Vanilla();
+        random = new Random(1);
+        time = 0;
+        while (ticks.size() < PENDING)
+        {
+            BlockPos pos = new BlockPos(random.nextInt(512) - 256, random.nextInt(256), random.nextInt(512) - 256);
+            ticks.add(entry(pos, BLOCKS[random.nextInt(BLOCKS.length)], 1 + random.nextInt(100), random.nextInt(4) - 3));
+        }
+    }
+
+    @Benchmark
+    public int tick()
+    {
+        time++;
+        List<NextTickListEntry> due = new ArrayList<>();
+        ticks.poll(time, false, 65536, due);
+        for (NextTickListEntry entry : due)
+        {
+            ticks.add(entry(entry.position, entry.getBlock(), time + 1 + random.nextInt(100), entry.priority));
+        }
+        return due.size();
+    }
+
+    private static NextTickListEntry entry(BlockPos pos, Block block, long time, int priority)
+    {
+        NextTickListEntry entry = new NextTickListEntryFix(pos, block);
+        entry.setScheduledTime(time);
+        entry.setPriority(priority);
+        return entry;
+    }
+
+    /**
+     * Runs a small area of random tile ticks through both schedulers, with many duplicates, delays
+     * past the size of the wheel, overdue ticks like those of reloaded chunks, tick limits that leave
+     * ticks behind, ticks run regardless of their time and chunks being unloaded.
+     */
+    private static void verifyOrder(Random random)
+    {
+        Vanilla vanilla = new Vanilla();
+        Wheel wheel = new Wheel();
+        for (long time = 0; time < 5000; time++)
+        {
+            for (int i = random.nextInt(200); i > 0; i--)
+            {
+                BlockPos pos = new BlockPos(random.nextInt(64) - 32, random.nextInt(4), random.nextInt(64) - 32);
+                long delay = random.nextInt(10) == 0 ? -random.nextInt(50) : random.nextInt(random.nextBoolean() ? 10 : 3000);
+                NextTickListEntry entry = entry(pos, BLOCKS[random.nextInt(BLOCKS.length)], time + delay, random.nextInt(4) - 3);
+                if (vanilla.add(entry) != wheel.add(entry))
+                {
+                    throw new IllegalStateException("Schedulers disagree on a duplicate at tick " + time);
+                }
+            }
+            if (random.nextInt(20) == 0)
+            {
+                int x = (random.nextInt(4) - 2) << 4;
+                int z = (random.nextInt(4) - 2) << 4;
+                StructureBoundingBox box = new StructureBoundingBox(x - 2, 0, z - 2, x + 16, 256, z + 16);
+                boolean remove = random.nextBoolean();
+                compare(vanilla.getEntriesIn(box, remove), wheel.getEntriesIn(box, remove), time);
+            }
+            List<NextTickListEntry> expected = new ArrayList<>();
+            List<NextTickListEntry> actual = new ArrayList<>();
+            int limit = random.nextInt(10) == 0 ? random.nextInt(50) : 65536;
+            boolean all = random.nextInt(500) == 0;
+            vanilla.poll(time, all, limit, expected);
+            wheel.poll(time, all, limit, actual);
+            compare(expected, actual, time);
+            if (vanilla.size() != wheel.size())
+            {
+                throw new IllegalStateException("Schedulers disagree on the number of pending ticks at tick " + time);
+            }
+        }
+    }
+
+    private static void compare(List<NextTickListEntry> expected, List<NextTickListEntry> actual, long time)
+    {
+        int size = expected == null ? 0 : expected.size();
+        if (size != (actual == null ? 0 : actual.size()))
+        {
+            throw new IllegalStateException("Schedulers disagree on the number of ticks at tick " + time);
+        }
+        for (int i = 0; i < size; i++)
+        {
+            if (expected.get(i) != actual.get(i))
+            {
+                throw new IllegalStateException("Schedulers disagree on the order of ticks at tick " + time);
+            }
+        }
+    }
+}
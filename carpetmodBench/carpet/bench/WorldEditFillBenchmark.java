@@ -0,0 +1,90 @@
+package carpet.bench;
+
+import carpet.worldedit.SectionWriteBatch;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a 256x153x256 box, just over 10M blocks, the way a WorldEdit //set in
+ * fast mode does, alternating between stone and air. perBlock is the old write
+ * path of the WorldEdit bridge, one chunk lookup, chunk write and block update
+ * per block, batched goes through SectionWriteBatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 6)
+@Fork(1)
+public class WorldEditFillBenchmark
+{
+    private static final int SIZE = 256;
+    private static final int HEIGHT = 153;
+
+    @Param({"perBlock", "batched"})
+    public String path;
+
+    private BenchmarkWorld world;
+    private boolean solid;
+
+    @Setup
+    public void setup()
+    {
+        world = new BenchmarkWorld(SIZE / 32);
+    }
+
+    @Benchmark
+    public void fill()
+    {
+        solid = !solid;
+        IBlockState state = solid ? Blocks.STONE.getDefaultState() : Blocks.AIR.getDefaultState();
+        int min = -SIZE / 2;
+        int max = SIZE / 2 - 1;
+        int top = BenchmarkWorld.FLOOR + HEIGHT - 1;
+        if ("batched".equals(path))
+        {
+            SectionWriteBatch batch = new SectionWriteBatch(world);
+            for (int x = min; x <= max; x++)
+            {
+                for (int z = min; z <= max; z++)
+                {
+                    for (int y = BenchmarkWorld.FLOOR; y <= top; y++)
+                    {
+                        batch.setBlockState(x, y, z, state, false);
+                    }
+                }
+            }
+            batch.flush();
+        }
+        else
+        {
+            IBlockState air = Blocks.AIR.getDefaultState();
+            for (int x = min; x <= max; x++)
+            {
+                for (int z = min; z <= max; z++)
+                {
+                    for (int y = BenchmarkWorld.FLOOR; y <= top; y++)
+                    {
+                        BlockPos pos = new BlockPos(x, y, z);
+                        world.getChunk(x >> 4, z >> 4).setBlockState(pos, state);
+                        world.notifyBlockUpdate(pos, air, state, 3);
+                    }
+                }
+            }
+        }
+    }
+}
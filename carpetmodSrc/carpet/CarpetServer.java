@@ -17,6 +17,7 @@ import narcolepticfrog.rsmm.server.RSMMServer;
 import carpet.carpetclient.CarpetClientServer;
 
 import carpet.helpers.TickSpeed;
+import carpet.helpers.HopperCounter;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.entity.player.EntityPlayerMP;
 import carpet.logging.LoggerRegistry;
@@ -132,7 +133,10 @@ public class CarpetServer // static for now - easier to handle all around the co
         }
         HUDController.update_hud(server);
         WorldEditBridge.onStartTick();
+        HopperCounter.tick(server);
+        LoadTest.tick(server);
         PUBSUB.update(server.getTickCounter());
+        PUBSUB_MESSENGER.flush(server.getTickCounter());
     }
     public static void playerConnected(EntityPlayerMP player)
     {
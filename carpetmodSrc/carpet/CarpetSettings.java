@@ -19,9 +19,12 @@ import java.util.stream.Collectors;
 
 import carpet.carpetclient.CarpetClientChunkLogger;
 import carpet.carpetclient.CarpetClientRuleChanger;
+import carpet.helpers.EntityMergeIndex;
 import carpet.helpers.RandomTickOptimization;
 import carpet.helpers.ScoreboardDelta;
 import carpet.patches.BlockWool;
+import carpet.patches.NetworkManagerFake;
+import carpet.utils.TickHistory;
 import carpet.utils.TickingArea;
 import carpet.worldedit.WorldEditBridge;
 import com.google.common.collect.Sets;
@@ -124,6 +127,9 @@ public class CarpetSettings
     @Rule(desc = "Enables /player command to control/spawn players", category = COMMANDS)
     public static boolean commandPlayer = true;
 
+    @Rule(desc = "Enables /loadtest command to measure server performance with fake players", category = COMMANDS)
+    public static boolean commandLoadTest = false;
+
     @Rule(desc = "Enables /rng command to manipulate and query rng", category = COMMANDS)
     public static boolean commandRNG = true;
 
@@ -449,6 +455,20 @@ public class CarpetSettings
         return true;
     }
 
+    @Rule(desc = "Captures a stack trace for every Nth chunk debug event of each type.", category = CREATIVE, options = {"0", "1", "10", "100"}, validator = "validateNonNegative", extra = {
+            "1 captures every stack trace, 0 captures none",
+            "Capturing stack traces is the most expensive part of chunk debug"
+    })
+    public static int chunkDebugStackTraceInterval = 1;
+
+    @Rule(desc = "Chunk debug events that get stack traces.", category = CREATIVE, options = {"all", "loading,generating", "queue_unload,unloading"}, validator = "validateChunkDebugStackTraceEvents", extra = {
+            "Comma separated list of event names or all"
+    })
+    public static String chunkDebugStackTraceEvents = "all";
+    private static boolean validateChunkDebugStackTraceEvents(String value) {
+        return CarpetClientChunkLogger.setStackTraceEvents(value);
+    }
+
     @Rule(desc = "Enables/disables WorldEdit.", category = {CREATIVE, EXPERIMENTAL}, validator = "validateWorldEdit", extra = {
             "Only works in WorldEdit is in the classpath."
     })
@@ -619,6 +639,13 @@ public class CarpetSettings
     @Rule(desc = "TNT causes less lag when exploding in the same spot and in liquids", category = TNT)
     public static boolean optimizedTNT = false;
 
+    @Rule(desc = "Explosions in the same tick share block and exposure lookups as long as no block changes, requires optimizedTNT", category = {TNT, OPTIMIZATIONS},
+            extra = {
+                    "Explosions from the same spot also follow the rays of the previous one instead of looking at the blocks again",
+                    "Helps cannons where many TNT explode in liquids or against blast proof blocks in the same tick, results are identical to optimizedTNT alone"
+            })
+    public static boolean optimizedTNTBatching = false;
+
     @Rule(desc = "Fixes server crashing under heavy load and low tps", category = FIX, extra = {
             "Won't prevent crashes if the server doesn't respond in max-tick-time ticks"
     })
@@ -642,6 +669,16 @@ public class CarpetSettings
     @Rule(desc = "Spawned mobs that would otherwise despawn immediately, won't be placed in world", category = OPTIMIZATIONS)
     public static boolean optimizedDespawnRange = false;
 
+    @Rule(desc = "Items and XP orbs look for others to merge with in a spatial hash", category = OPTIMIZATIONS, validator = "validateOptimizedItemMerging", extra = {
+            "Helps mob farm drop points with thousands of items and orbs",
+            "Items and orbs merge in the same order as in vanilla"
+    })
+    public static boolean optimizedItemMerging = false;
+    private static boolean validateOptimizedItemMerging(boolean value) {
+        EntityMergeIndex.clear();
+        return true;
+    }
+
     @Rule(desc = "Optimized movement calculation or very fast moving entities", category = EXPERIMENTAL)
     public static boolean fastMovingEntityOptimization = false;
 
@@ -657,6 +694,10 @@ public class CarpetSettings
     @BugFixDefault
     public static boolean entityDuplicationFix = false;
 
+    @Rule(desc = "Saves chunks in batches, compressing them in parallel and writing them per region file", category = {OPTIMIZATIONS, EXPERIMENTAL},
+            extra = "Only active together with entityDuplicationFix")
+    public static boolean batchedChunkSaving = false;
+
     @Rule(desc = "Fixes duplication of items when using item frames", category = FIX)
     public static boolean duplicationFixItemFrame = false;
 
@@ -687,6 +728,16 @@ public class CarpetSettings
     @Rule(desc = "Uses alternative lighting engine by PhiPros. AKA NewLight mod", category = OPTIMIZATIONS)
     public static boolean newLight = false;
 
+    @Rule(desc = "Processes large batches of newLight updates in distant regions on several threads", category = {OPTIMIZATIONS, EXPERIMENTAL},
+            extra = "Regions are chosen so they never share a chunk, results are identical to single threaded processing")
+    public static boolean newLightParallel = false;
+
+    @Rule(desc = "Time in microseconds newLight may spend on queued updates at the end of a dimension tick, 0 for no limit", category = {OPTIMIZATIONS, EXPERIMENTAL},
+            options = {"0", "2000", "5000", "10000"}, validator = "validateNonNegative",
+            extra = {"Reading light, sending or unloading a chunk only processes the remaining updates that can reach that chunk",
+                    "Saving all chunks still processes everything"})
+    public static int newLightTickBudget = 0;
+
     @Rule(desc = "Permanent fires don't schedule random updates", category = EXPERIMENTAL)
     @BugFixDefault
     public static boolean calmNetherFires = false;
@@ -770,8 +821,14 @@ public class CarpetSettings
     @Rule(desc = "Fixes updates suppression causing server crashes.", category = FIX)
     public static boolean updateSuppressionCrashFix;
 
-    @Rule(desc = "Fixes double tile tick scheduling", category = FIX)
+    @Rule(desc = "Fixes double tile tick scheduling", category = FIX, validator = "validateDoubleTileTickFix", extra = {
+            "Can't be turned off while tileTickWheel is on"
+    })
     public static boolean doubleTileTickSchedulingFix = false;
+    private static boolean validateDoubleTileTickFix(boolean value) {
+        // the timing wheel never schedules a tile tick twice
+        return value || !tileTickWheel;
+    }
 //    private static boolean validateDoubleTileTickSchedulingFix(boolean value) {
 //        if (CarpetServer.minecraft_server.worlds == null)
 //            return true;
@@ -842,6 +899,13 @@ public class CarpetSettings
     @Rule(desc = "Allow player to open the fake player's inventory.", category = FEATURE)
     public static boolean openFakePlayerInventory;
 
+    @Rule(desc = "Counts the packets dropped for fake players by type, see /loadtest packets", category = FEATURE, validator = "validateFakePlayerPacketStats")
+    public static boolean fakePlayerPacketStats;
+    private static boolean validateFakePlayerPacketStats(boolean value) {
+        NetworkManagerFake.outByType.clear();
+        return true;
+    }
+
     @Rule(desc = "Turns crafting tables into automated crafting tables with inventorys.", category = FEATURE, extra = "WARNING! If the rule is turned off after use, any inventory content in crafting tables will permanently become lost after chunks are reloaded.")
     public static boolean autocrafter;
 
@@ -947,7 +1011,10 @@ public class CarpetSettings
     @SurvivalDefault
     public static boolean missingTools = false;
 
-    @Rule(desc = "Alternative caching strategy for nether portals", category = {SURVIVAL, EXPERIMENTAL})
+    @Rule(desc = "Alternative caching strategy for nether portals", category = {SURVIVAL, EXPERIMENTAL}, extra = {
+            "Remembers where portals last linked to and finds new links from the portal blocks of each chunk",
+            "instead of looking at every block within 128 blocks, finding the same portal as vanilla"
+    })
     @CreativeDefault
     @SurvivalDefault
     public static boolean portalCaching = false;
@@ -987,6 +1054,24 @@ public class CarpetSettings
         return value >= -1;
     }
 
+    @Rule(desc = "Keeps scheduled tile ticks in a timing wheel instead of a tree set", category = {OPTIMIZATIONS, EXPERIMENTAL}, validator = "validateTileTickWheel", extra = {
+            "Scheduling takes constant time and saving chunks only looks at their own tile ticks",
+            "Tile ticks run in the same order as in vanilla with doubleTileTickSchedulingFix,",
+            "which the wheel always behaves like, so turning it on also turns on doubleTileTickSchedulingFix"
+    })
+    public static boolean tileTickWheel = false;
+    private static boolean validateTileTickWheel(boolean value) {
+        if (value) {
+            doubleTileTickSchedulingFix = true;
+        }
+        if (CarpetServer.minecraft_server != null && CarpetServer.minecraft_server.worlds != null) {
+            for (WorldServer world : CarpetServer.minecraft_server.worlds) {
+                world.setTileTickWheel(value);
+            }
+        }
+        return true;
+    }
+
     @Rule(desc = "Redstone ore blocks can redirect redstone dust", category = {EXPERIMENTAL, FEATURE})
     public static boolean redstoneOreRedirectsDust = false;
 
@@ -1027,6 +1112,17 @@ public class CarpetSettings
         }
         return true;
     }
+
+    @Rule(desc = "Keeps a rolling history of tick times per dimension and phase, in minutes", category = {SURVIVAL, EXPERIMENTAL}, options = {"0", "5", "15", "60"}, validator = "validateTickHistory", extra = {
+            "Inspect it with /profile history [seconds], save it with /profile history export <csv|binary>",
+            "0 to disable"
+    })
+    public static int tickHistory = 0;
+    private static boolean validateTickHistory(int value) {
+        if (value < 0 || value > 120) return false;
+        TickHistory.resize(value);
+        return true;
+    }
     // ===== API ===== //
 
     /**
@@ -10,6 +10,7 @@ package carpet.carpetclient;
 import carpet.CarpetSettings;
 import carpet.helpers.StackTraceDeobfuscator;
 import carpet.utils.LRUCache;
+import io.netty.buffer.Unpooled;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
@@ -23,6 +24,8 @@ import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.gen.ChunkProviderServer;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class CarpetClientChunkLogger {
     public static CarpetClientChunkLogger logger = new CarpetClientChunkLogger();
@@ -30,12 +33,20 @@ public class CarpetClientChunkLogger {
     public boolean enabled = true;
     StackTraces stackTraces = new StackTraces();
     private final ChunkLoggerSerializer clients = new ChunkLoggerSerializer();
-    private final ArrayList<ChunkLog> eventsThisGametick = new ArrayList<>();
+    private EventBuffer eventsThisGametick = new EventBuffer();
     public static String reason = null;
     public static String oldReason = null;
 
     private static final int MAX_STACKTRACE_SIZE = 60;
 
+    // stack traces are only captured for these events, and then only for every Nth event of each type
+    private static final boolean[] stackTraceEvents = new boolean[Event.values().length];
+    private final int[] eventsUntilStackTrace = new int[Event.values().length];
+
+    static {
+        Arrays.fill(stackTraceEvents, true);
+    }
+
     public enum Event {
         NONE,
         UNLOADING,
@@ -49,21 +60,31 @@ public class CarpetClientChunkLogger {
         GENERATING_STRUCTURES;
     }
 
-    private static class ChunkLog {
-        final int chunkX;
-        final int chunkZ;
-        final int chunkDimension;
-        final Event event;
-        final InternedString stackTrace;
-        final InternedString reason;
-
-        ChunkLog(int x, int z, int d, Event e, InternedString trace, InternedString reason) {
-            this.chunkX = x;
-            this.chunkZ = z;
-            this.chunkDimension = d;
-            this.event = e;
-            this.stackTrace = trace;
-            this.reason = reason;
+    /*
+     * Events of one gametick, stored as 6 ints per event in the order of the event packets:
+     * x, z, dimension, event, stack trace id, reason id
+     */
+    private static class EventBuffer {
+        static final int FIELDS = 6;
+
+        int[] data = new int[FIELDS * 64];
+        int size;
+        final Set<InternedString> strings = new HashSet<>();
+
+        void add(int x, int z, int d, Event e, InternedString trace, InternedString reason) {
+            if ((size + 1) * FIELDS > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int i = size * FIELDS;
+            data[i] = x;
+            data[i + 1] = z;
+            data[i + 2] = d;
+            data[i + 3] = e.ordinal();
+            data[i + 4] = trace == null ? 0 : trace.id;
+            data[i + 5] = reason == null ? 0 : reason.id;
+            if (trace != null) strings.add(trace);
+            if (reason != null) strings.add(reason);
+            size++;
         }
     }
 
@@ -80,12 +101,43 @@ public class CarpetClientChunkLogger {
         reason = null;
     }
 
+    /*
+     * sets the events that get stack traces from a comma separated list of event names, or all
+     */
+    public static boolean setStackTraceEvents(String events) {
+        boolean[] selected = new boolean[stackTraceEvents.length];
+        if ("all".equalsIgnoreCase(events)) {
+            Arrays.fill(selected, true);
+        } else {
+            for (String name : events.split(",")) {
+                try {
+                    selected[Event.valueOf(name.trim().toUpperCase(Locale.ROOT)).ordinal()] = true;
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+            }
+        }
+        System.arraycopy(selected, 0, stackTraceEvents, 0, selected.length);
+        return true;
+    }
+
     /*
      * main logging function
      * logs a change in a chunk including a stacktrace if required by the client
      */
     public void log(World w, int x, int z, Event e) {
-        log(x, z, getWorldIndex(w), e, stackTraces.internStackTrace(), stackTraces.internReason());
+        InternedString stackTrace = shouldCaptureStackTrace(e) ? stackTraces.internStackTrace() : null;
+        log(x, z, getWorldIndex(w), e, stackTrace, stackTraces.internReason());
+    }
+
+    private boolean shouldCaptureStackTrace(Event e) {
+        int interval = CarpetSettings.chunkDebugStackTraceInterval;
+        if (interval <= 0 || !stackTraceEvents[e.ordinal()]) {
+            return false;
+        }
+        int remaining = eventsUntilStackTrace[e.ordinal()];
+        eventsUntilStackTrace[e.ordinal()] = remaining <= 0 ? interval - 1 : remaining - 1;
+        return remaining <= 0;
     }
 
     /*
@@ -93,7 +145,6 @@ public class CarpetClientChunkLogger {
      */
     public void sendAll() {
         clients.sendUpdates();
-        this.eventsThisGametick.clear();
     }
 
     /*
@@ -103,7 +154,7 @@ public class CarpetClientChunkLogger {
     public void disable() {
         enabled = false;
         clients.kickAllPlayers();
-        this.eventsThisGametick.clear();
+        this.eventsThisGametick = new EventBuffer();
     }
 
     /*
@@ -120,18 +171,18 @@ public class CarpetClientChunkLogger {
         clients.unregisterPlayer(player);
     }
 
-    private ArrayList<ChunkLog> getInitialChunksForNewClient(MinecraftServer server) {
-        ArrayList<ChunkLog> forNewClient = new ArrayList<>();
+    private EventBuffer getInitialChunksForNewClient(MinecraftServer server) {
+        EventBuffer forNewClient = new EventBuffer();
         int dimension = -1;
         for (World w : server.worlds) {
             ChunkProviderServer provider = (ChunkProviderServer) (w.getChunkProvider());
             dimension++;
             for (Chunk c : provider.getLoadedChunks()) {
-                forNewClient.add(new ChunkLog(c.x, c.z, dimension, Event.LOADING, null, null));
+                forNewClient.add(c.x, c.z, dimension, Event.LOADING, null, null);
                 if (provider.isChunkUnloadScheduled(c.x, c.z)) {
-                    forNewClient.add(new ChunkLog(c.x, c.z, dimension, Event.QUEUE_UNLOAD, null, null));
+                    forNewClient.add(c.x, c.z, dimension, Event.QUEUE_UNLOAD, null, null);
                     if (!c.unloadQueued) {
-                        forNewClient.add(new ChunkLog(c.x, c.z, dimension, Event.CANCEL_UNLOAD, null, null));
+                        forNewClient.add(c.x, c.z, dimension, Event.CANCEL_UNLOAD, null, null);
                     }
                 }
             }
@@ -139,18 +190,23 @@ public class CarpetClientChunkLogger {
             Iterator<ChunkPos> i = chunkmap.carpetGetAllChunkCoordinates();
             while (i.hasNext()) {
                 ChunkPos pos = i.next();
-                forNewClient.add(new ChunkLog(pos.x, pos.z, dimension, Event.PLAYER_ENTERS, null, null));
+                forNewClient.add(pos.x, pos.z, dimension, Event.PLAYER_ENTERS, null, null);
             }
         }
         return forNewClient;
     }
 
-    private ArrayList<ChunkLog> getEventsThisGametick() {
-        return this.eventsThisGametick;
+    /*
+     * hands the events of this gametick over to the serializer and starts a new buffer
+     */
+    private EventBuffer takeEventsThisGametick() {
+        EventBuffer events = this.eventsThisGametick;
+        this.eventsThisGametick = new EventBuffer();
+        return events;
     }
 
     private void log(int x, int z, int d, Event event, InternedString stackTrace, InternedString reasonID) {
-        this.eventsThisGametick.add(new ChunkLog(x, z, d, event, stackTrace, reasonID));
+        this.eventsThisGametick.add(x, z, d, event, stackTrace, reasonID);
     }
 
     private static int getWorldIndex(World w) {
@@ -166,13 +222,24 @@ public class CarpetClientChunkLogger {
 
     private static class InternedString {
         public final String obfuscated;
-        public final String deobfuscated;
         public final int id;
+        // stack traces are deobfuscated when they are first sent, on the serializer thread
+        private StackTraceElement[] trace;
+        private String deobfuscated;
 
-        public InternedString(int id, String obfuscated, String deobfuscated) {
+        public InternedString(int id, String obfuscated, StackTraceElement[] trace) {
             this.id = id;
             this.obfuscated = obfuscated;
-            this.deobfuscated = deobfuscated;
+            this.trace = trace;
+            this.deobfuscated = trace == null ? obfuscated : null;
+        }
+
+        public String getDeobfuscated() {
+            if (deobfuscated == null) {
+                deobfuscated = StackTraces.asString(trace, true);
+                trace = null;
+            }
+            return deobfuscated;
         }
 
         @Override
@@ -180,7 +247,7 @@ public class CarpetClientChunkLogger {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             InternedString that = (InternedString) o;
-            return id == that.id && Objects.equals(obfuscated, that.obfuscated) && Objects.equals(deobfuscated, that.deobfuscated);
+            return id == that.id && Objects.equals(obfuscated, that.obfuscated);
         }
 
         @Override
@@ -194,32 +261,31 @@ public class CarpetClientChunkLogger {
         private final Map<String, InternedString> internedStrings = new LRUCache<>(128); // 64 ~ 98%, 128+ > 99%
         private int nextId = 1;
 
-        private InternedString internString(String obfuscated, String deobfuscated) {
+        private InternedString internString(String obfuscated, StackTraceElement[] trace) {
             if (obfuscated == null) return null;
             InternedString internedString = internedStrings.get(obfuscated);
             if (internedString == null) {
-                internedString = new InternedString(nextId++, obfuscated, deobfuscated);
+                internedString = new InternedString(nextId++, obfuscated, trace);
                 internedStrings.put(obfuscated, internedString);
             }
             return internedString;
         }
 
         private InternedString internString(String s) {
-            return this.internString(s, s);
+            return this.internString(s, null);
         }
 
         private InternedString internStackTrace() {
             StackTraceElement[] trace = new Throwable().getStackTrace();
-            String obfuscated = asString(trace, false);
-            String deobfuscated = asString(trace, true);
-            return this.internString(obfuscated, deobfuscated);
+            return this.internString(asString(trace, false), trace);
         }
 
         public InternedString internReason() {
             return this.internString(reason);
         }
 
-        private String asString(StackTraceElement[] trace, boolean deobfuscated) {
+        // the deobfuscator is not thread safe, deobfuscating is only done on the serializer thread
+        private static String asString(StackTraceElement[] trace, boolean deobfuscated) {
             if (deobfuscated) {
                 trace = DEOBFUSCATOR.withStackTrace(trace).deobfuscate();
             }
@@ -259,16 +325,41 @@ public class CarpetClientChunkLogger {
         }
     }
 
-    private class ChunkLoggerSerializer {
+    /*
+     * Serializes and sends the events on a separate thread, the main thread only hands over the events
+     * of each gametick. The queue is bounded, if the serializer falls behind the main thread waits for it
+     * instead of buffering without limit. All per player state is only touched on the serializer thread.
+     */
+    private class ChunkLoggerSerializer implements Runnable {
 
         private static final int PACKET_EVENTS = 0;
         private static final int PACKET_STACKTRACE = 1;
         private static final int PACKET_ACCESS_DENIED = 2;
+        private static final int PACKET_EVENTS_COMPACT = 3;
+
+        private static final int ENCODING_NBT = 0;
+        private static final int ENCODING_COMPACT = 1;
 
         private static final int STACKTRACES_BATCH_SIZE = 10;
         private static final int LOGS_BATCH_SIZE = 1000;
+        private static final int QUEUE_SIZE = 64;
+
+        // main thread
+        private final Set<EntityPlayerMP> players = new HashSet<>();
+        private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private Thread thread;
+
+        // serializer thread
+        private final Map<EntityPlayerMP, Client> clients = new HashMap<>();
+
+        private class Client {
+            final HashSet<InternedString> sentTraces = new HashSet<>();
+            final int encoding;
 
-        private final Map<EntityPlayerMP, HashSet<InternedString>> sentTracesForPlayer = new WeakHashMap<>();
+            Client(int encoding) {
+                this.encoding = encoding;
+            }
+        }
 
         public void registerPlayer(EntityPlayerMP sender, PacketBuffer data) {
             if (!CarpetSettings.chunkDebugTool) {
@@ -277,78 +368,119 @@ public class CarpetClientChunkLogger {
             }
             boolean addPlayer = data.readBoolean();
             if (addPlayer) {
+                // older clients don't send an encoding and get the NBT events
+                int encoding = data.isReadable() ? data.readVarInt() : ENCODING_NBT;
                 enabled = true;
-                this.sentTracesForPlayer.put(sender, new HashSet<>());
-                this.sendInitalChunks(sender);
+                this.players.add(sender);
+                MinecraftServer server = sender.getServer();
+                EventBuffer initialChunks = getInitialChunksForNewClient(server);
+                int time = -server.getTickCounter() - 1;
+                this.submit(() -> {
+                    Client client = new Client(encoding);
+                    this.clients.put(sender, client);
+                    this.sendEvents(Collections.singletonMap(sender, client), initialChunks, time);
+                });
             } else {
                 this.unregisterPlayer(sender);
             }
         }
 
         public void unregisterPlayer(EntityPlayerMP player) {
-            sentTracesForPlayer.remove(player);
-            if (sentTracesForPlayer.isEmpty()) {
+            if (this.players.remove(player)) {
+                this.submit(() -> this.clients.remove(player));
+            }
+            if (this.players.isEmpty()) {
                 enabled = false;
             }
         }
 
-        private void sendInitalChunks(EntityPlayerMP sender) {
-            MinecraftServer server = sender.getServer();
-            ArrayList<ChunkLog> logs = getInitialChunksForNewClient(server);
-            sendMissingStackTracesForPlayer(sender, logs);
-            for (int i = 0; i < logs.size(); i += LOGS_BATCH_SIZE) {
-                boolean complete = (i + LOGS_BATCH_SIZE) >= logs.size();
-                List<ChunkLog> batch = logs.subList(i, Integer.min(i + LOGS_BATCH_SIZE, logs.size()));
-                NBTTagCompound chunkData = serializeEvents(batch, -server.getTickCounter() - 1, i, complete);
-                if (chunkData != null) {
-                    CarpetClientMessageHandler.sendNBTChunkData(sender, PACKET_EVENTS, chunkData);
-                }
+        private void sendUpdates() {
+            if (this.players.isEmpty()) {
+                return;
+            }
+            EventBuffer events = takeEventsThisGametick();
+            if (events.size == 0) {
+                return;
             }
+            int time = this.players.iterator().next().server.getTickCounter();
+            this.submit(() -> this.sendEvents(this.clients, events, time));
         }
 
-        private void sendUpdates() {
-            if (this.sentTracesForPlayer.isEmpty()) {
+        private void kickAllPlayers() {
+            if (this.players.isEmpty()) {
                 return;
             }
+            this.players.clear();
+            this.submit(() -> {
+                for (EntityPlayerMP player : this.clients.keySet()) {
+                    CarpetClientMessageHandler.sendNBTChunkData(player, PACKET_ACCESS_DENIED, new NBTTagCompound());
+                }
+                this.clients.clear();
+            });
+        }
 
-            ArrayList<ChunkLog> logs = getEventsThisGametick();
-            MinecraftServer server = this.sentTracesForPlayer.keySet().iterator().next().server;
-
-            for (EntityPlayerMP client : this.sentTracesForPlayer.keySet()) {
-                this.sendMissingStackTracesForPlayer(client, logs);
+        private void submit(Runnable task) {
+            if (this.thread == null) {
+                this.thread = new Thread(this, "Chunk debug serializer");
+                this.thread.setDaemon(true);
+                this.thread.start();
             }
-            for (int i = 0; i < logs.size(); i += LOGS_BATCH_SIZE) {
-                boolean complete = (i + LOGS_BATCH_SIZE) >= logs.size();
-                List<ChunkLog> batch = logs.subList(i, Integer.min(i + LOGS_BATCH_SIZE, logs.size()));
-                NBTTagCompound chunkData = serializeEvents(batch, server.getTickCounter(), i, complete);
-                if (chunkData != null) {
-                    for (EntityPlayerMP player : this.sentTracesForPlayer.keySet()) {
-                        CarpetClientMessageHandler.sendNBTChunkData(player, PACKET_EVENTS, chunkData);
-                    }
-                }
+            try {
+                this.tasks.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
-        private void sendMissingStackTracesForPlayer(EntityPlayerMP player, ArrayList<ChunkLog> events) {
-            HashSet<InternedString> missingTraces = new HashSet<>();
-            HashSet<InternedString> sentTraces = this.sentTracesForPlayer.getOrDefault(player, null);
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    this.tasks.take().run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    CarpetSettings.LOG.error("[CM]: failed to send chunk debug events", e);
+                }
+            }
+        }
 
-            if (sentTraces == null) {
+        private void sendEvents(Map<EntityPlayerMP, Client> clients, EventBuffer events, int gametick) {
+            if (clients.isEmpty()) {
                 return;
             }
-            for (ChunkLog log : events) {
-                InternedString stackTrace = log.stackTrace;
-                InternedString reason = log.reason;
-                if (stackTrace != null && !sentTraces.contains(stackTrace)) {
-                    sentTraces.add(stackTrace);
-                    missingTraces.add(stackTrace);
+            for (Map.Entry<EntityPlayerMP, Client> client : clients.entrySet()) {
+                this.sendMissingStackTracesForPlayer(client.getKey(), client.getValue(), events);
+            }
+            // every batch is serialized once per encoding and shared by the players using it
+            for (int i = 0; i < events.size; i += LOGS_BATCH_SIZE) {
+                boolean complete = (i + LOGS_BATCH_SIZE) >= events.size;
+                int end = Integer.min(i + LOGS_BATCH_SIZE, events.size);
+                NBTTagCompound chunkData = null;
+                PacketBuffer compactData = null;
+                for (Map.Entry<EntityPlayerMP, Client> client : clients.entrySet()) {
+                    if (client.getValue().encoding == ENCODING_COMPACT) {
+                        if (compactData == null) {
+                            compactData = serializeEventsCompact(events, i, end, gametick, complete);
+                        }
+                        CarpetClientMessageHandler.sendChunkData(client.getKey(), PACKET_EVENTS_COMPACT, compactData);
+                    } else {
+                        if (chunkData == null) {
+                            chunkData = serializeEvents(events, i, end, gametick, complete);
+                        }
+                        CarpetClientMessageHandler.sendNBTChunkData(client.getKey(), PACKET_EVENTS, chunkData);
+                    }
                 }
-                if (reason != null && !sentTraces.contains(reason)) {
-                    sentTraces.add(reason);
-                    missingTraces.add(reason);
+            }
+        }
+
+        private void sendMissingStackTracesForPlayer(EntityPlayerMP player, Client client, EventBuffer events) {
+            ArrayList<InternedString> missingList = new ArrayList<>();
+            for (InternedString string : events.strings) {
+                if (client.sentTraces.add(string)) {
+                    missingList.add(string);
                 }
             }
-            ArrayList<InternedString> missingList = new ArrayList<>(missingTraces);
             for (int i = 0; i < missingList.size(); i += STACKTRACES_BATCH_SIZE) {
                 List<InternedString> part = missingList.subList(i, Integer.min(i + STACKTRACES_BATCH_SIZE, missingList.size()));
                 NBTTagCompound stackData = serializeStackTraces(part);
@@ -358,29 +490,50 @@ public class CarpetClientChunkLogger {
             }
         }
 
-        private NBTTagCompound serializeEvents(List<ChunkLog> events, int gametick, int dataOffset, boolean complete) {
-            if (events.isEmpty()) {
-                return null;
-            }
+        private NBTTagCompound serializeEvents(EventBuffer events, int from, int to, int gametick, boolean complete) {
             NBTTagCompound chunkData = new NBTTagCompound();
-            int[] data = new int[6 * events.size()];
-            int i = 0;
-            for (ChunkLog log : events) {
-                data[i++] = log.chunkX;
-                data[i++] = log.chunkZ;
-                data[i++] = log.chunkDimension;
-                data[i++] = log.event.ordinal();
-                data[i++] = log.stackTrace == null ? 0 : log.stackTrace.id;
-                data[i++] = log.reason == null ? 0 : log.reason.id;
-            }
-            chunkData.setInteger("size", events.size());
+            int[] data = Arrays.copyOfRange(events.data, from * EventBuffer.FIELDS, to * EventBuffer.FIELDS);
+            chunkData.setInteger("size", to - from);
             chunkData.setIntArray("data", data);
-            chunkData.setInteger("offset", dataOffset);
+            chunkData.setInteger("offset", from);
             chunkData.setInteger("time", gametick);
             chunkData.setBoolean("complete", complete);
             return chunkData;
         }
 
+        /*
+         * compact event format:
+         * time (zigzag varint), offset (varint), complete (boolean), size (varint), then for every event
+         * x and z (zigzag varint, relative to the previous event), dimension (zigzag varint),
+         * event, stack trace id and reason id (varint)
+         */
+        private PacketBuffer serializeEventsCompact(EventBuffer events, int from, int to, int gametick, boolean complete) {
+            PacketBuffer data = new PacketBuffer(Unpooled.buffer((to - from) * 8 + 16));
+            data.writeVarInt(zigZag(gametick));
+            data.writeVarInt(from);
+            data.writeBoolean(complete);
+            data.writeVarInt(to - from);
+            int lastX = 0;
+            int lastZ = 0;
+            for (int i = from * EventBuffer.FIELDS; i < to * EventBuffer.FIELDS; i += EventBuffer.FIELDS) {
+                int x = events.data[i];
+                int z = events.data[i + 1];
+                data.writeVarInt(zigZag(x - lastX));
+                data.writeVarInt(zigZag(z - lastZ));
+                data.writeVarInt(zigZag(events.data[i + 2]));
+                data.writeVarInt(events.data[i + 3]);
+                data.writeVarInt(events.data[i + 4]);
+                data.writeVarInt(events.data[i + 5]);
+                lastX = x;
+                lastZ = z;
+            }
+            return data;
+        }
+
+        private int zigZag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+
         private NBTTagCompound serializeStackTraces(List<InternedString> strings) {
             if (strings.isEmpty()) {
                 return null;
@@ -389,19 +542,12 @@ public class CarpetClientChunkLogger {
             for (InternedString obfuscated : strings) {
                 NBTTagCompound stackTrace = new NBTTagCompound();
                 stackTrace.setInteger("id", obfuscated.id);
-                stackTrace.setString("stack", obfuscated.deobfuscated);
+                stackTrace.setString("stack", obfuscated.getDeobfuscated());
                 list.appendTag(stackTrace);
             }
             NBTTagCompound stackList = new NBTTagCompound();
             stackList.setTag("stackList", list);
             return stackList;
         }
-
-        private void kickAllPlayers() {
-            for (EntityPlayerMP player : this.sentTracesForPlayer.keySet()) {
-                CarpetClientMessageHandler.sendNBTChunkData(player, PACKET_ACCESS_DENIED, new NBTTagCompound());
-            }
-            this.sentTracesForPlayer.clear();
-        }
     }
-}
\ No newline at end of file
+}
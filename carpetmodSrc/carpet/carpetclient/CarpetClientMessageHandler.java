@@ -133,6 +133,14 @@ public class CarpetClientMessageHandler {
         CarpetClientServer.sender(data, sender);
     }
 
+    public static void sendChunkData(EntityPlayerMP sender, int dataType, PacketBuffer payload) {
+        PacketBuffer data = new PacketBuffer(Unpooled.buffer());
+        data.writeInt(CarpetClientMessageHandler.CHUNK_LOGGER);
+        data.writeInt(dataType);
+        data.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        CarpetClientServer.sender(data, sender);
+    }
+
     public static void sendPistonUpdate() {
         PacketBuffer data = new PacketBuffer(Unpooled.buffer());
         data.writeInt(CarpetClientMessageHandler.PISTON_UPDATES);
@@ -27,6 +27,7 @@ public class CarpetCommands {
         handler.registerCommand(new CommandLagSpike());
         handler.registerCommand(new CommandLazyChunkBehavior());
         handler.registerCommand(new CommandLight());
+        handler.registerCommand(new CommandLoadTest());
         handler.registerCommand(new CommandLoadedChunks());
         handler.registerCommand(new CommandLog());
         handler.registerCommand(new CommandPalette());
@@ -26,7 +26,7 @@ public class CommandCounter extends CommandCarpetBase
      */
     public String getUsage(ICommandSender sender)
     {
-        return "Usage: counter <color> <reset/realtime>";
+        return "Usage: counter <color> <reset/realtime/rate> [minutes]";
     }
 
     public String getName()
@@ -70,6 +70,10 @@ public class CommandCounter extends CommandCarpetBase
                 counter.reset(server);
                 notifyCommandListener(sender, this, String.format("%s counters restarted.", args[0]));
                 return;
+            case "rate":
+                int minutes = args.length > 2 ? parseInt(args[2], 1, HopperCounter.MINUTES) : 1;
+                msg(sender, counter.formatRate(server, minutes));
+                return;
         }
         throw new WrongUsageException(getUsage(sender));
 
@@ -99,7 +103,11 @@ public class CommandCounter extends CommandCarpetBase
         }
         if (args.length == 2)
         {
-            return getListOfStringsMatchingLastWord(args, "reset", "realtime");
+            return getListOfStringsMatchingLastWord(args, "reset", "realtime", "rate");
+        }
+        if (args.length == 3 && "rate".equalsIgnoreCase(args[1]))
+        {
+            return getListOfStringsMatchingLastWord(args, "1", "5", "15", "60");
         }
         return Collections.<String>emptyList();
     }
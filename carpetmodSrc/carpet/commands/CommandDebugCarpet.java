@@ -2,6 +2,7 @@ package carpet.commands;
 
 import javax.annotation.Nullable;
 
+import carpet.CarpetSettings;
 import carpet.utils.Messenger;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
@@ -65,7 +66,8 @@ public class CommandDebugCarpet extends CommandCarpetBase {
             }
         }
         if("pendingTickListEntriesTreeSet".equalsIgnoreCase(args[0])) {
-            for(NextTickListEntry e : ((WorldServer)sender.getEntityWorld()).pendingTickListEntriesTreeSet){
+            WorldServer world = (WorldServer)sender.getEntityWorld();
+            for(NextTickListEntry e : CarpetSettings.tileTickWheel ? world.tileTickWheel.getEntries() : world.pendingTickListEntriesTreeSet){
                 sender.sendMessage(Messenger.s(sender, e.toString()));
             }
         }
@@ -0,0 +1,116 @@
+package carpet.commands;
+
+import javax.annotation.Nullable;
+
+import carpet.CarpetSettings;
+import carpet.patches.NetworkManagerFake;
+import carpet.utils.LoadTest;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldServer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+public class CommandLoadTest extends CommandCarpetBase
+{
+    @Override
+    public String getName()
+    {
+        return "loadtest";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender)
+    {
+        return "Usage: /loadtest start <bots> [step] [seconds] [idle|walk|fly] [radius] | /loadtest stop | /loadtest status | /loadtest packets [reset]";
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException
+    {
+        if (!command_enabled("commandLoadTest", sender)) return;
+        if (args.length == 0)
+        {
+            throw new WrongUsageException(getUsage(sender));
+        }
+        switch (args[0].toLowerCase(Locale.ROOT))
+        {
+            case "start":
+            {
+                if (LoadTest.is_running())
+                {
+                    throw new CommandException("A load test is already running");
+                }
+                if (args.length < 2)
+                {
+                    throw new WrongUsageException(getUsage(sender));
+                }
+                int bots = parseInt(args[1], 1, 1000);
+                int step = args.length > 2 ? parseInt(args[2], 1, bots) : Math.max(bots / 10, 1);
+                int seconds = args.length > 3 ? parseInt(args[3], LoadTest.WARMUP_TICKS / 20 + 5) : 30;
+                LoadTest.Pattern pattern;
+                try
+                {
+                    pattern = args.length > 4 ? LoadTest.Pattern.valueOf(args[4].toLowerCase(Locale.ROOT)) : LoadTest.Pattern.walk;
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new WrongUsageException(getUsage(sender));
+                }
+                int radius = args.length > 5 ? parseInt(args[5], 0, 10000) : 64;
+                WorldServer world = (WorldServer) sender.getEntityWorld();
+                LoadTest.start(server, world, sender.getPosition(), bots, step, seconds, pattern, radius);
+                notifyCommandListener(sender, this, String.format("Started load test with up to %d bots, %d more every %ds", bots, step, seconds));
+                return;
+            }
+            case "stop":
+                if (!LoadTest.is_running())
+                {
+                    throw new CommandException("No load test is running");
+                }
+                LoadTest.stop(server);
+                notifyCommandListener(sender, this, "Load test stopped");
+                return;
+            case "status":
+                LoadTest.status(server);
+                return;
+            case "packets":
+                if (args.length > 1 && "reset".equalsIgnoreCase(args[1]))
+                {
+                    NetworkManagerFake.outByType.clear();
+                    notifyCommandListener(sender, this, "Fake player packet counts reset");
+                    return;
+                }
+                LoadTest.packet_report(server);
+                return;
+        }
+        throw new WrongUsageException(getUsage(sender));
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos pos)
+    {
+        if (!CarpetSettings.commandLoadTest)
+        {
+            return Collections.<String>emptyList();
+        }
+        if (args.length == 1)
+        {
+            return getListOfStringsMatchingLastWord(args, "start", "stop", "status", "packets");
+        }
+        if (args.length == 2 && "packets".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "reset");
+        }
+        if (args.length == 5 && "start".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "idle", "walk", "fly");
+        }
+        return Collections.emptyList();
+    }
+}
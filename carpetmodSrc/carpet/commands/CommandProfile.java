@@ -4,11 +4,15 @@ import javax.annotation.Nullable;
 
 import carpet.CarpetSettings;
 import carpet.utils.CarpetProfiler;
+import carpet.utils.ChunkHeatmap;
+import carpet.utils.TickHistory;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.math.BlockPos;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,20 +27,101 @@ public class CommandProfile extends CommandCarpetBase
     @Override
     public String getUsage(ICommandSender sender)
     {
-        return "Usage: /profile <entities>";
+        return "Usage: /profile [health|entities] [ticks] [chunks] | /profile chunks [ticks] [top] | /profile chunks export | /profile continuous [report] | /profile history [seconds|export [csv|binary]]";
     }
 
     @Override
     public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException
     {
         if (!command_enabled("commandProfile", sender)) return;
+        if (args.length > 0 && "continuous".equalsIgnoreCase(args[0]))
+        {
+            if (args.length > 1 && "report".equalsIgnoreCase(args[1]))
+            {
+                if (!CarpetProfiler.is_continuous())
+                {
+                    throw new CommandException("Continuous profiling is not running");
+                }
+                CarpetProfiler.print_continuous_report(server);
+                return;
+            }
+            CarpetProfiler.set_continuous(!CarpetProfiler.is_continuous());
+            notifyCommandListener(sender, this, "Continuous profiling " + (CarpetProfiler.is_continuous() ? "enabled" : "disabled"));
+            return;
+        }
+        if (args.length > 0 && "history".equalsIgnoreCase(args[0]))
+        {
+            if (!TickHistory.enabled())
+            {
+                throw new CommandException("Tick history is disabled, enable it with the tickHistory rule");
+            }
+            if (args.length > 1 && "export".equalsIgnoreCase(args[1]))
+            {
+                if (args.length > 2 && !"csv".equalsIgnoreCase(args[2]) && !"binary".equalsIgnoreCase(args[2]))
+                {
+                    throw new WrongUsageException(getUsage(sender));
+                }
+                boolean csv = args.length < 3 || "csv".equalsIgnoreCase(args[2]);
+                File file = TickHistory.export(server, csv);
+                if (file == null)
+                {
+                    throw new CommandException("No tick history recorded yet");
+                }
+                notifyCommandListener(sender, this, "Writing tick history to " + file.getName());
+                return;
+            }
+            int seconds = 60;
+            if (args.length > 1)
+            {
+                seconds = parseInt(args[1], 1, 7200);
+            }
+            msg(sender, TickHistory.report(seconds));
+            return;
+        }
+        if (args.length > 0 && "chunks".equalsIgnoreCase(args[0]))
+        {
+            if (args.length > 1 && "export".equalsIgnoreCase(args[1]))
+            {
+                List<File> files = ChunkHeatmap.export(server);
+                if (files.isEmpty())
+                {
+                    throw new CommandException("No chunk report recorded yet, run /profile chunks first");
+                }
+                for (File file : files)
+                {
+                    notifyCommandListener(sender, this, "Writing chunk heatmap to " + file.getName());
+                }
+                return;
+            }
+            int ticks = 100;
+            if (args.length > 1)
+            {
+                ticks = parseInt(args[1], 20, 72000);
+            }
+            int top = 10;
+            if (args.length > 2)
+            {
+                top = parseInt(args[2], 1, 100);
+            }
+            CarpetProfiler.prepare_chunk_report(ticks, top);
+            return;
+        }
+        int ticks = 100;
+        if (args.length > 1)
+        {
+            ticks = parseInt(args[1], 20, 72000);
+        }
         if (args.length > 0 && "entities".equalsIgnoreCase(args[0]))
         {
-            CarpetProfiler.prepare_entity_report(100);
+            CarpetProfiler.prepare_entity_report(ticks, args.length > 2 && "chunks".equalsIgnoreCase(args[2]));
+        }
+        else if (args.length == 0 || "health".equalsIgnoreCase(args[0]))
+        {
+            CarpetProfiler.prepare_tick_report(ticks);
         }
         else
         {
-            CarpetProfiler.prepare_tick_report(100);
+            throw new WrongUsageException(getUsage(sender));
         }
 
     }
@@ -48,7 +133,27 @@ public class CommandProfile extends CommandCarpetBase
         }
         if (args.length == 1)
         {
-            return getListOfStringsMatchingLastWord(args, "entities");
+            return getListOfStringsMatchingLastWord(args, "health", "entities", "chunks", "continuous", "history");
+        }
+        if (args.length == 2 && "continuous".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "report");
+        }
+        if (args.length == 3 && "entities".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "chunks");
+        }
+        if (args.length == 2 && "chunks".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "export", "100", "1200");
+        }
+        if (args.length == 2 && "history".equalsIgnoreCase(args[0]))
+        {
+            return getListOfStringsMatchingLastWord(args, "export", "60", "300");
+        }
+        if (args.length == 3 && "history".equalsIgnoreCase(args[0]) && "export".equalsIgnoreCase(args[1]))
+        {
+            return getListOfStringsMatchingLastWord(args, "csv", "binary");
         }
         return Collections.<String>emptyList();
     }
@@ -25,6 +25,7 @@ public class CommandTickingArea extends CommandCarpetBase
     private static final String USAGE_ADD_SQUARE = "/tickingarea add [square] <fromChunk: x z> <toChunk: x z> [name]";
     private static final String USAGE_ADD_CIRCLE = "/tickingarea add circle <centerChunk: x z> <radius> [name]";
     private static final String USAGE_REMOVE = "/tickingarea remove <name|chunkPos: x z>";
+    private static final String USAGE_LIST_AT = "/tickingarea list at <chunkPos: x z>";
     
     @Override
     public String getName()
@@ -167,7 +168,19 @@ public class CommandTickingArea extends CommandCarpetBase
     
     private void listTickingAreas(ICommandSender sender, String[] args) throws CommandException
     {
-        if (args.length > 1 && "all-dimensions".equals(args[1]))
+        if (args.length > 1 && "at".equals(args[1]))
+        {
+            if (args.length < 4)
+                throw new WrongUsageException(USAGE_LIST_AT);
+            ChunkPos pos = parseChunkPos(sender, args, 2);
+            List<TickingArea> areas = TickingArea.getTickingAreasAt(sender.getEntityWorld(), pos.x, pos.z);
+            sender.sendMessage(new TextComponentString("Ticking areas covering chunk (" + pos.x + ", " + pos.z + "): " + areas.size()));
+            for (TickingArea area : areas)
+            {
+                sender.sendMessage(new TextComponentString(formatArea(area)));
+            }
+        }
+        else if (args.length > 1 && "all-dimensions".equals(args[1]))
         {
             for (World world : sender.getServer().worlds)
             {
@@ -185,20 +198,24 @@ public class CommandTickingArea extends CommandCarpetBase
         if (world.provider.isSurfaceWorld() && !CarpetSettings.disableSpawnChunks)
             sender.sendMessage(new TextComponentString("Spawn chunks are enabled"));
         
-        sender.sendMessage(new TextComponentString("Ticking areas in " + world.provider.getDimensionType().getName() + ":"));
+        sender.sendMessage(new TextComponentString("Ticking areas in " + world.provider.getDimensionType().getName()
+                + " (" + TickingArea.getTickingChunkCount(world) + " chunks):"));
         
         for (TickingArea area : TickingArea.getTickingAreas(world))
         {
-            String msg = "- ";
-            if (area.getName() != null)
-                msg += area.getName() + ": ";
-            
-            msg += area.format();
-            
-            sender.sendMessage(new TextComponentString(msg));
+            sender.sendMessage(new TextComponentString(formatArea(area)));
         }
     }
     
+    private static String formatArea(TickingArea area)
+    {
+        String msg = "- ";
+        if (area.getName() != null)
+            msg += area.getName() + ": ";
+        
+        return msg + area.format();
+    }
+    
     private static List<String> tabCompleteChunkPos(ICommandSender sender, BlockPos targetPos, String[] args, int index)
     {
         if (targetPos == null)
@@ -276,7 +293,11 @@ public class CommandTickingArea extends CommandCarpetBase
         {
             if (args.length == 2)
             {
-                return getListOfStringsMatchingLastWord(args, "all-dimensions");
+                return getListOfStringsMatchingLastWord(args, "all-dimensions", "at");
+            }
+            else if ("at".equals(args[1]) && args.length < 5)
+            {
+                return tabCompleteChunkPos(sender, targetPos, args, 3);
             }
             else
             {
@@ -0,0 +1,345 @@
+package carpet.helpers;
+
+import carpet.CarpetSettings;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.item.EntityXPOrb;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Spatial hash of the items or XP orbs of a world for merging, which otherwise goes through every item
+ * or orb of the chunk sections around each one that tries to merge. A chunk section is hashed into
+ * cells of {@link #CELL_SIZE} blocks the first time merging looks at it in a tick, and is kept up to
+ * date as entities are added to it, removed from it or moved by their update for the rest of the tick.
+ * Lookups visit chunks and sections like World.getEntitiesWithinAABB and return the entities of each
+ * section in the order they were added to it, so merging sees the same entities in the same order.
+ */
+public class EntityMergeIndex
+{
+    // about the size of the merge box, an item grown by half a block on each side
+    private static final double CELL_SIZE = 2.0D;
+
+    private static final Map<World, EntityMergeIndex> itemIndexes = new WeakHashMap<>();
+    private static final Map<World, EntityMergeIndex> orbIndexes = new WeakHashMap<>();
+
+    private final World world;
+    private final Class<? extends Entity> type;
+    private final Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+    private final List<Entry> matches = new ArrayList<>();
+    private long tick = Long.MIN_VALUE;
+    private int order;
+    // largest bounding box seen this tick, entities are hashed by their lowest corner
+    private double maxWidth;
+    private double maxHeight;
+
+    private static class Entry
+    {
+        final Entity entity;
+        final int order;
+        long cell;
+
+        Entry(Entity entity, int order, long cell)
+        {
+            this.entity = entity;
+            this.order = order;
+            this.cell = cell;
+        }
+    }
+
+    private class Section
+    {
+        final Chunk chunk;
+        final int y;
+        final Long2ObjectMap<List<Entry>> cells = new Long2ObjectOpenHashMap<>();
+        final Map<Entity, Entry> entries = new Reference2ObjectOpenHashMap<>();
+        // an entity is in the section twice, which the cells can't represent
+        boolean duplicates;
+
+        Section(Chunk chunk, int y)
+        {
+            this.chunk = chunk;
+            this.y = y;
+            for (Entity entity : chunk.getEntityLists()[y].getByClass(type))
+                add(entity);
+        }
+
+        void add(Entity entity)
+        {
+            if (entries.containsKey(entity))
+            {
+                duplicates = true;
+                return;
+            }
+            Entry entry = new Entry(entity, order++, cellOf(entity));
+            entries.put(entity, entry);
+            cells.computeIfAbsent(entry.cell, k -> new ArrayList<>()).add(entry);
+        }
+
+        void remove(Entity entity)
+        {
+            Entry entry = entries.remove(entity);
+            if (entry != null)
+                removeFromCell(entry);
+        }
+
+        void move(Entity entity)
+        {
+            Entry entry = entries.get(entity);
+            if (entry == null)
+                return;
+            long cell = cellOf(entity);
+            if (cell != entry.cell)
+            {
+                removeFromCell(entry);
+                entry.cell = cell;
+                cells.computeIfAbsent(cell, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        void removeFromCell(Entry entry)
+        {
+            List<Entry> cell = cells.get(entry.cell);
+            cell.remove(entry);
+            if (cell.isEmpty())
+                cells.remove(entry.cell);
+        }
+
+        void collect(AxisAlignedBB box, List<Entity> list)
+        {
+            if (duplicates)
+            {
+                for (Entity entity : chunk.getEntityLists()[y].getByClass(type))
+                {
+                    if (entity.getEntityBoundingBox().intersects(box))
+                        list.add(entity);
+                }
+                return;
+            }
+
+            int minX = cellCoord(box.minX - maxWidth);
+            int maxX = cellCoord(box.maxX);
+            int minY = cellCoord(box.minY - maxHeight);
+            int maxY = cellCoord(box.maxY);
+            int minZ = cellCoord(box.minZ - maxWidth);
+            int maxZ = cellCoord(box.maxZ);
+            matches.clear();
+            if ((long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1) > cells.size())
+            {
+                for (List<Entry> cell : cells.values())
+                    collectIn(cell, box);
+            }
+            else
+            {
+                for (int x = minX; x <= maxX; x++)
+                {
+                    for (int y = minY; y <= maxY; y++)
+                    {
+                        for (int z = minZ; z <= maxZ; z++)
+                        {
+                            List<Entry> cell = cells.get(cellKey(x, y, z));
+                            if (cell != null)
+                                collectIn(cell, box);
+                        }
+                    }
+                }
+            }
+            matches.sort(Comparator.comparingInt(entry -> entry.order));
+            for (Entry entry : matches)
+                list.add(entry.entity);
+        }
+
+        private void collectIn(List<Entry> cell, AxisAlignedBB box)
+        {
+            for (Entry entry : cell)
+            {
+                if (entry.entity.getEntityBoundingBox().intersects(box))
+                    matches.add(entry);
+            }
+        }
+    }
+
+    private EntityMergeIndex(World world, Class<? extends Entity> type)
+    {
+        this.world = world;
+        this.type = type;
+    }
+
+    /**
+     * World.getEntitiesWithinAABB for merging items or XP orbs, through the spatial hash when
+     * optimizedItemMerging is on.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Entity> List<T> getEntitiesWithinAABB(World world, Class<T> type, AxisAlignedBB box)
+    {
+        Map<World, EntityMergeIndex> indexes = getIndexes(type);
+        if (!CarpetSettings.optimizedItemMerging || world.isRemote || indexes == null)
+            return world.getEntitiesWithinAABB(type, box);
+
+        EntityMergeIndex index = indexes.computeIfAbsent(world, w -> new EntityMergeIndex(w, type));
+        return (List<T>) index.getEntitiesWithinAABB(box);
+    }
+
+    /**
+     * Called when an entity is added to the entity list of a chunk section.
+     */
+    public static void onAdded(Chunk chunk, Entity entity, int y)
+    {
+        EntityMergeIndex index = getIndex(chunk.getWorld(), entity);
+        if (index != null)
+        {
+            Section section = index.getSection(chunk, y, false);
+            if (section != null)
+                section.add(entity);
+        }
+    }
+
+    /**
+     * Called when an entity is removed from the entity list of a chunk section.
+     */
+    public static void onRemoved(Chunk chunk, Entity entity, int y)
+    {
+        EntityMergeIndex index = getIndex(chunk.getWorld(), entity);
+        if (index != null)
+        {
+            Section section = index.getSection(chunk, y, false);
+            if (section != null)
+                section.remove(entity);
+        }
+    }
+
+    /**
+     * Called after an entity was updated, which might have moved it.
+     */
+    public static void onUpdated(Entity entity)
+    {
+        if (!entity.addedToChunk)
+            return;
+        EntityMergeIndex index = getIndex(entity.world, entity);
+        if (index != null)
+        {
+            Section section = index.sections.get(cellKey(entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ));
+            if (section != null)
+                section.move(entity);
+        }
+    }
+
+    /**
+     * Drops all spatial hashes, they are only kept up to date while optimizedItemMerging is on.
+     */
+    public static void clear()
+    {
+        itemIndexes.clear();
+        orbIndexes.clear();
+    }
+
+    @Nullable
+    private static Map<World, EntityMergeIndex> getIndexes(Class<?> type)
+    {
+        if (EntityItem.class.isAssignableFrom(type))
+            return itemIndexes;
+        if (EntityXPOrb.class.isAssignableFrom(type))
+            return orbIndexes;
+        return null;
+    }
+
+    @Nullable
+    private static EntityMergeIndex getIndex(World world, Entity entity)
+    {
+        if (!CarpetSettings.optimizedItemMerging)
+            return null;
+        Map<World, EntityMergeIndex> indexes = getIndexes(entity.getClass());
+        if (indexes == null)
+            return null;
+        EntityMergeIndex index = indexes.get(world);
+        // sections of earlier ticks are dropped by the next lookup
+        if (index == null || index.tick != world.getTotalWorldTime())
+            return null;
+        return index;
+    }
+
+    private List<Entity> getEntitiesWithinAABB(AxisAlignedBB box)
+    {
+        long now = world.getTotalWorldTime();
+        if (tick != now)
+        {
+            // entities can be moved by anything between ticks, like pistons
+            sections.clear();
+            tick = now;
+            order = 0;
+            maxWidth = 0.0D;
+            maxHeight = 0.0D;
+        }
+
+        List<Entity> list = new ArrayList<>();
+        int minChunkX = MathHelper.floor((box.minX - 2.0D) / 16.0D);
+        int maxChunkX = MathHelper.ceil((box.maxX + 2.0D) / 16.0D);
+        int minChunkZ = MathHelper.floor((box.minZ - 2.0D) / 16.0D);
+        int maxChunkZ = MathHelper.ceil((box.maxZ + 2.0D) / 16.0D);
+
+        for (int chunkX = minChunkX; chunkX < maxChunkX; chunkX++)
+        {
+            for (int chunkZ = minChunkZ; chunkZ < maxChunkZ; chunkZ++)
+            {
+                if (!world.isChunkLoaded(chunkX, chunkZ, true))
+                    continue;
+                Chunk chunk = world.getChunk(chunkX, chunkZ);
+                int top = chunk.getEntityLists().length - 1;
+                int minY = MathHelper.clamp(MathHelper.floor((box.minY - 2.0D) / 16.0D), 0, top);
+                int maxY = MathHelper.clamp(MathHelper.floor((box.maxY + 2.0D) / 16.0D), 0, top);
+                for (int y = minY; y <= maxY; y++)
+                    getSection(chunk, y, true).collect(box, list);
+            }
+        }
+        return list;
+    }
+
+    private Section getSection(Chunk chunk, int y, boolean create)
+    {
+        long key = cellKey(chunk.x, y, chunk.z);
+        Section section = sections.get(key);
+        if (section != null && section.chunk != chunk)
+        {
+            // the chunk was unloaded and loaded again
+            sections.remove(key);
+            section = null;
+        }
+        if (section == null && create)
+        {
+            section = new Section(chunk, y);
+            sections.put(key, section);
+        }
+        return section;
+    }
+
+    private long cellOf(Entity entity)
+    {
+        AxisAlignedBB box = entity.getEntityBoundingBox();
+        maxWidth = Math.max(maxWidth, Math.max(box.maxX - box.minX, box.maxZ - box.minZ));
+        maxHeight = Math.max(maxHeight, box.maxY - box.minY);
+        return cellKey(cellCoord(box.minX), cellCoord(box.minY), cellCoord(box.minZ));
+    }
+
+    private static int cellCoord(double coord)
+    {
+        return MathHelper.floor(coord / CELL_SIZE);
+    }
+
+    // cells, and sections by chunk coordinates, packed like BlockPos.toLong
+    private static long cellKey(int x, int y, int z)
+    {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) y & 0xFFFL) << 26 | (long) z & 0x3FFFFFFL;
+    }
+}
@@ -4,9 +4,12 @@ import carpet.CarpetServer;
 import carpet.pubsub.PubSubInfoProvider;
 import carpet.utils.Messenger;
 import com.google.common.collect.Maps;
-import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.minecraft.item.EnumDyeColor;
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.server.MinecraftServer;
@@ -15,8 +18,16 @@ import javax.annotation.Nullable;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Items are counted by a packed item id and metadata key. Transfers during a tick go into a
+ * delta that is folded into the totals and published once per tick, and every counter keeps
+ * the last hour of counts in per minute buckets to report rates over sliding windows.
+ */
 public class HopperCounter
 {
+    private static final int TICKS_PER_MINUTE = 20 * 60;
+    public static final int MINUTES = 60;
+
     public static final HopperCounter cactus = new HopperCounter(EnumDyeColor.GREEN, "cactus");
     public static final HopperCounter all = new HopperCounter(EnumDyeColor.GRAY, "all");
     public static final Map<String, HopperCounter> COUNTERS;
@@ -31,7 +42,13 @@ public class HopperCounter
     }
 
     public final EnumDyeColor color;
-    private final Object2LongMap<ItemWithMeta> counter = new Object2LongLinkedOpenHashMap<>();
+    private final Int2LongMap counter = new Int2LongLinkedOpenHashMap();
+    private final Int2LongMap delta = new Int2LongLinkedOpenHashMap();
+    private final Int2ObjectMap<long[]> minuteCounts = new Int2ObjectOpenHashMap<>();
+    private final long[] minuteTotals = new long[MINUTES];
+    private long total;
+    private long deltaTotal;
+    private long currentMinute;
     private long startTick;
     private long startMillis;
     private PubSubInfoProvider<Long> pubSubProvider;
@@ -43,18 +60,76 @@ public class HopperCounter
         pubSubProvider = new PubSubInfoProvider<>(CarpetServer.PUBSUB, "carpet.counter." + name, 0, this::getTotalItems);
     }
 
+    private static int key(ItemStack stack) {
+        Item item = stack.getItem();
+        return Item.getIdFromItem(item) << 16 | (item.getHasSubtypes() ? stack.getMetadata() & 0xFFFF : 0);
+    }
+
+    private static String getDisplayName(int key) {
+        return new ItemWithMeta(Item.getItemById(key >>> 16), key & 0xFFFF).getDisplayName();
+    }
+
     public void add(MinecraftServer server, ItemStack stack) {
         if (startTick == 0) {
             startTick = server.getTickCounter();
             startMillis = MinecraftServer.getCurrentTimeMillis();
         }
-        ItemWithMeta item = new ItemWithMeta(stack);
-        counter.put(item, counter.getLong(item) + stack.getCount());
-        pubSubProvider.publish();
+        int key = key(stack);
+        delta.put(key, delta.get(key) + stack.getCount());
+        deltaTotal += stack.getCount();
+    }
+
+    public static void tick(MinecraftServer server) {
+        for (HopperCounter counter : COUNTERS.values()) {
+            if (counter.deltaTotal != 0) {
+                counter.fold(server);
+                counter.pubSubProvider.publish();
+            }
+        }
+    }
+
+    /**
+     * Moves the counts of the current tick into the totals and the bucket of the current minute.
+     */
+    private void fold(MinecraftServer server) {
+        long minute = Math.max(server.getTickCounter() - startTick, 0) / TICKS_PER_MINUTE;
+        if (minute != currentMinute) {
+            // clear the buckets of the minutes skipped since the last fold
+            for (long m = Math.max(currentMinute + 1, minute - MINUTES + 1); m <= minute; m++) {
+                int bucket = (int) (m % MINUTES);
+                minuteTotals[bucket] = 0;
+                for (long[] counts : minuteCounts.values()) {
+                    counts[bucket] = 0;
+                }
+            }
+            currentMinute = minute;
+        }
+        int bucket = (int) (minute % MINUTES);
+        for (Int2LongMap.Entry e : delta.int2LongEntrySet()) {
+            int key = e.getIntKey();
+            long count = e.getLongValue();
+            counter.put(key, counter.get(key) + count);
+            long[] counts = minuteCounts.get(key);
+            if (counts == null) {
+                counts = new long[MINUTES];
+                minuteCounts.put(key, counts);
+            }
+            counts[bucket] += count;
+        }
+        minuteTotals[bucket] += deltaTotal;
+        total += deltaTotal;
+        delta.clear();
+        deltaTotal = 0;
     }
 
     public void reset(MinecraftServer server) {
         counter.clear();
+        delta.clear();
+        minuteCounts.clear();
+        Arrays.fill(minuteTotals, 0);
+        total = 0;
+        deltaTotal = 0;
+        currentMinute = 0;
         startTick = server.getTickCounter();
         startMillis = MinecraftServer.getCurrentTimeMillis();
         pubSubProvider.publish();
@@ -83,6 +158,9 @@ public class HopperCounter
     }
 
     public List<ITextComponent> format(MinecraftServer server, boolean realTime, boolean brief) {
+        if (deltaTotal != 0) {
+            fold(server);
+        }
         if (counter.isEmpty()) {
             if (brief) {
                 return Collections.singletonList(Messenger.m(null, "g "+name+": -, -/h, - min "));
@@ -106,9 +184,9 @@ public class HopperCounter
                     String.format("c %s: %d, %d/h, %.1f min ",
                             name, total, total * (20 * 60 * 60) / ticks, ticks / (20.0 * 60.0))));
         }
-        List<ITextComponent> list = counter.entrySet().stream().map(e -> {
-            String itemName = e.getKey().getDisplayName();
-            long count = e.getValue();
+        List<ITextComponent> list = counter.int2LongEntrySet().stream().map(e -> {
+            String itemName = getDisplayName(e.getIntKey());
+            long count = e.getLongValue();
             return Messenger.s(null, String.format(" - %s: %d, %.1f/h",
                     itemName,
                     count,
@@ -118,6 +196,42 @@ public class HopperCounter
         return list;
     }
 
+    /**
+     * Rates over the last <code>minutes</code> minutes of game time, counting the current minute as one of them.
+     */
+    public List<ITextComponent> formatRate(MinecraftServer server, int minutes) {
+        if (deltaTotal != 0) {
+            fold(server);
+        }
+        if (counter.isEmpty()) {
+            return Collections.singletonList(Messenger.s(null, String.format("No items for %s yet", name)));
+        }
+        long elapsed = Math.max(server.getTickCounter() - startTick, 0);
+        long minute = elapsed / TICKS_PER_MINUTE;
+        long first = Math.max(minute - minutes + 1, Math.max(currentMinute - MINUTES + 1, 0));
+        long ticks = Math.max(elapsed - first * TICKS_PER_MINUTE, 1);
+        List<ITextComponent> list = new ArrayList<>();
+        list.add(Messenger.s(null, String.format("Counter: %s, last %.1f min: %.1f/h",
+                name, ticks / (20.0 * 60.0), windowCount(minuteTotals, first, minute) * (20.0 * 60.0 * 60.0) / ticks)));
+        for (Int2LongMap.Entry e : counter.int2LongEntrySet()) {
+            long count = windowCount(minuteCounts.get(e.getIntKey()), first, minute);
+            if (count > 0) {
+                list.add(Messenger.s(null, String.format(" - %s: %d, %.1f/h",
+                        getDisplayName(e.getIntKey()), count, count * (20.0 * 60.0 * 60.0) / ticks)));
+            }
+        }
+        return list;
+    }
+
+    private long windowCount(long[] counts, long first, long last) {
+        long count = 0;
+        // buckets past the last fold have not been cleared yet and hold counts from an hour ago
+        for (long m = first; m <= Math.min(last, currentMinute); m++) {
+            count += counts[(int) (m % MINUTES)];
+        }
+        return count;
+    }
+
     @Nullable
     public static HopperCounter getCounter(String color) {
         try {
@@ -128,6 +242,6 @@ public class HopperCounter
     }
 
     public long getTotalItems() {
-        return counter.values().stream().mapToLong(Long::longValue).sum();
+        return total + deltaTotal;
     }
 }
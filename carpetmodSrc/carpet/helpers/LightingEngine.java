@@ -4,6 +4,10 @@ package carpet.helpers;
  * Copyright PhiPro
  */
 
+import carpet.CarpetSettings;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.profiler.Profiler;
 import net.minecraft.util.EnumFacing;
@@ -18,7 +22,15 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 
 public class LightingEngine {
     private static final int MAX_SCHEDULED_COUNT = 1 << 22;
@@ -53,6 +65,22 @@ public class LightingEngine {
     private static final long mChunk = ((mX >> 4) << (4 + sX)) | ((mZ >> 4) << (4 + sZ));
     private static final int CACHED_QUEUE_SEGMENTS_COUNT = 1 << 12;
     private static final int QUEUE_SEGMENT_SIZE = 1 << 10;
+    //Parallel processing parameters
+    //Minimum amount of queued updates before splitting them into regions is worth it
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    //Amount of queued updates checked between two looks at the clock when processing on a time budget
+    private static final int BUDGET_BATCH_SIZE = 1 << 12;
+    //Light spreads at most 15 blocks from a change, twice that when a darkening re-brightens from a stale neighbor,
+    //so all chunks read or written while processing an update lie within this many chunks of it
+    private static final int REGION_MARGIN = 2;
+    //Updates can only change light values within 15 blocks of themselves, so a read only waits for updates in this many chunks around it
+    private static final int READ_MARGIN = 1;
+    private static final ForkJoinPool parallelPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), pool -> {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Light worker " + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
 
     static {
         for (int i = 0; i < 6; ++i) {
@@ -63,6 +91,9 @@ public class LightingEngine {
 
     private final World world;
     private final Profiler profiler;
+    //Worker engines only touch their own regions and report light notifications back instead of calling the world
+    private final boolean isWorker;
+    private final List<LightingEngine> workers = new ArrayList<LightingEngine>();
     //Layout of longs: [padding(4)] [y(8)] [x(26)] [z(26)]
     private final PooledLongQueue[] queuedLightUpdates = new PooledLongQueue[EnumSkyBlock.values().length];
     //Layout of longs: see above
@@ -72,6 +103,14 @@ public class LightingEngine {
     private final PooledLongQueue initialBrightenings = new PooledLongQueue();
     //Layout of longs: [padding(4)] [pos(60)]
     private final PooledLongQueue initialDarkenings = new PooledLongQueue();
+    //Layout of longs: see above
+    private final PooledLongQueue workerNotifications = new PooledLongQueue();
+    //Layout of longs: see above
+    private final PooledLongQueue localLightUpdates = new PooledLongQueue();
+    //Amount of queued light updates per chunk identifier, only kept by the main engine
+    private final Long2IntOpenHashMap[] pendingChunks = new Long2IntOpenHashMap[EnumSkyBlock.values().length];
+    //Chunk identifier last found without queued updates around it, -1 if none
+    private final long[] settledChunks = new long[EnumSkyBlock.values().length];
     //Iteration state data
     //Cache position to avoid allocation of new object each time
     private final MutableBlockPos curPos = new MutableBlockPos();
@@ -91,11 +130,19 @@ public class LightingEngine {
     private boolean isNeighborDataValid = false;
 
     public LightingEngine(final World world) {
+        this(world, false);
+    }
+
+    private LightingEngine(final World world, final boolean isWorker) {
         this.world = world;
-        this.profiler = world.profiler;
+        //the world profiler is not thread safe, workers get a disabled one of their own
+        this.profiler = isWorker ? new Profiler() : world.profiler;
+        this.isWorker = isWorker;
 
         for (int i = 0; i < EnumSkyBlock.values().length; ++i) {
             this.queuedLightUpdates[i] = new PooledLongQueue();
+            this.pendingChunks[i] = new Long2IntOpenHashMap();
+            this.settledChunks[i] = -1;
         }
 
         for (int i = 0; i < this.queuedDarkenings.length; ++i) {
@@ -144,6 +191,8 @@ public class LightingEngine {
         final PooledLongQueue queue = this.queuedLightUpdates[lightType.ordinal()];
 
         queue.add(pos);
+        this.pendingChunks[lightType.ordinal()].addTo(pos & mChunk, 1);
+        this.settledChunks[lightType.ordinal()] = -1;
 
         //make sure there are not too many queued light updates
         if (queue.size() >= MAX_SCHEDULED_COUNT) {
@@ -159,22 +208,135 @@ public class LightingEngine {
         this.procLightUpdates(EnumSkyBlock.BLOCK);
     }
 
+    /**
+     * Processes queued updates of both light types in batches until <code>budgetNanos</code> have passed. Every batch is
+     * processed completely, so light values are consistent after each one. Whatever is left stays queued until the next
+     * call. Reading light, sending or unloading a chunk only processes the updates around it through
+     * {@link #procLightUpdates(int, int)}, saving all chunks still processes everything
+     */
+    public void procLightUpdatesBudgeted(final long budgetNanos) {
+        if (this.updating) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + budgetNanos;
+
+        do {
+            this.procLightUpdates(EnumSkyBlock.SKY, BUDGET_BATCH_SIZE);
+            this.procLightUpdates(EnumSkyBlock.BLOCK, BUDGET_BATCH_SIZE);
+        } while (this.hasLightUpdates() && System.nanoTime() < deadline);
+    }
+
+    public boolean hasLightUpdates() {
+        return !this.queuedLightUpdates[EnumSkyBlock.SKY.ordinal()].isEmpty() || !this.queuedLightUpdates[EnumSkyBlock.BLOCK.ordinal()].isEmpty();
+    }
+
     /**
      * Processes light updates of the given light type
      */
     public void procLightUpdates(final EnumSkyBlock lightType) {
-        final PooledLongQueue queue = this.queuedLightUpdates[lightType.ordinal()];
+        this.procLightUpdates(lightType, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calls {@link #procLightUpdates(EnumSkyBlock, int, int)} for both light types
+     */
+    public void procLightUpdates(final int chunkX, final int chunkZ) {
+        this.procLightUpdates(EnumSkyBlock.SKY, chunkX, chunkZ);
+        this.procLightUpdates(EnumSkyBlock.BLOCK, chunkX, chunkZ);
+    }
+
+    /**
+     * Processes the queued light updates of the given light type that can still change light values in the given chunk,
+     * in queue order. While {@link CarpetSettings#newLightTickBudget} is on, updates further away stay queued for
+     * {@link #procLightUpdatesBudgeted(long)}, otherwise the queue is emptied every tick anyway and everything is processed
+     */
+    public void procLightUpdates(final EnumSkyBlock lightType, final int chunkX, final int chunkZ) {
+        if (CarpetSettings.newLightTickBudget <= 0) {
+            this.procLightUpdates(lightType);
+            return;
+        }
+
+        final int type = lightType.ordinal();
+        final PooledLongQueue queue = this.queuedLightUpdates[type];
 
         if (queue.isEmpty()) {
             return;
         }
 
+        final long chunk = posToLong((long) chunkX << 4, 0, (long) chunkZ << 4) & mChunk;
+
+        if (this.settledChunks[type] == chunk) {
+            return;
+        }
+
+        final long centerX = chunk >> (sX + 4) & (mX >> 4);
+        final long centerZ = chunk >> (sZ + 4) & (mZ >> 4);
+
+        if (!this.hasPendingAround(type, centerX, centerZ)) {
+            this.settledChunks[type] = chunk;
+            return;
+        }
+
         //avoid nested calls
         if (this.updating) {
             logger.warn("Trying to access light values during relighting");
             return;
         }
 
+        for (int i = queue.size(); i > 0; --i) {
+            final long pos = queue.poll();
+
+            if (Math.abs((pos >> (sX + 4) & (mX >> 4)) - centerX) <= READ_MARGIN && Math.abs((pos >> (sZ + 4) & (mZ >> 4)) - centerZ) <= READ_MARGIN) {
+                this.localLightUpdates.add(pos);
+            } else {
+                queue.add(pos);
+            }
+        }
+
+        this.procLightUpdates(lightType, this.localLightUpdates, Integer.MAX_VALUE);
+        this.settledChunks[type] = chunk;
+    }
+
+    private boolean hasPendingAround(final int type, final long centerX, final long centerZ) {
+        final Long2IntOpenHashMap pending = this.pendingChunks[type];
+
+        for (long x = centerX - READ_MARGIN; x <= centerX + READ_MARGIN; ++x) {
+            for (long z = centerZ - READ_MARGIN; z <= centerZ + READ_MARGIN; ++z) {
+                if (pending.containsKey((x << (sX + 4)) | (z << (sZ + 4)))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Processes at most <code>limit</code> of the queued light updates of the given light type, in queue order
+     */
+    private void procLightUpdates(final EnumSkyBlock lightType, final int limit) {
+        this.procLightUpdates(lightType, this.queuedLightUpdates[lightType.ordinal()], limit);
+    }
+
+    /**
+     * Processes at most <code>limit</code> of the light updates of the given light type in <code>queue</code>, in queue order
+     */
+    private void procLightUpdates(final EnumSkyBlock lightType, final PooledLongQueue queue, int limit) {
+        if (queue.isEmpty()) {
+            return;
+        }
+
+        //avoid nested calls
+        if (this.updating) {
+            logger.warn("Trying to access light values during relighting");
+            return;
+        }
+
+        if (CarpetSettings.newLightParallel && !this.isWorker && limit == Integer.MAX_VALUE && queue == this.queuedLightUpdates[lightType.ordinal()] && queue.size() >= PARALLEL_THRESHOLD && this.procLightUpdatesParallel(lightType, queue)) {
+            return;
+        }
+
         this.updating = true;
         this.curChunkIdentifier = -1; //reset chunk cache
 
@@ -185,7 +347,15 @@ public class LightingEngine {
         this.profiler.startSection("checking");
 
         //process the queued updates and enqueue them for further processing
-        for (this.curQueue = queue; this.nextItem(); ) {
+        for (this.curQueue = queue; limit-- > 0 && this.nextItem(); ) {
+            if (!this.isWorker) {
+                final Long2IntOpenHashMap pending = this.pendingChunks[lightType.ordinal()];
+
+                if (pending.addTo(this.curData & mChunk, -1) == 1) {
+                    pending.remove(this.curData & mChunk);
+                }
+            }
+
             if (this.curChunk == null) {
                 continue;
             }
@@ -284,7 +454,11 @@ public class LightingEngine {
 
                 if (oldLight == curLight) //only process this if nothing else has happened at this position since scheduling
                 {
-                    this.world.notifyLightSet(this.curPos);
+                    if (this.isWorker) {
+                        this.workerNotifications.add(this.curData);
+                    } else {
+                        this.world.notifyLightSet(this.curPos);
+                    }
 
                     if (curLight > 1) {
                         this.spreadLightFromCur(curLight);
@@ -300,6 +474,182 @@ public class LightingEngine {
         this.updating = false;
     }
 
+    /**
+     * Splits the queued updates into groups of chunks far enough apart that their updates can never touch the same chunk
+     * and processes those groups concurrently, each on its own worker engine. Inside a group the updates keep their
+     * queue order, so every position ends up with exactly the light value the serial engine would give it.
+     *
+     * @return If the updates were processed, <code>false</code> if they all belong to one group and were left in the queue
+     */
+    private boolean procLightUpdatesParallel(final EnumSkyBlock lightType, final PooledLongQueue queue) {
+        if (parallelPool.getParallelism() < 2) {
+            return false;
+        }
+
+        final int count = queue.size();
+        final long[] positions = new long[count];
+        final int[] positionChunks = new int[count];
+        final Long2IntOpenHashMap chunkIds = new Long2IntOpenHashMap();
+        chunkIds.defaultReturnValue(-1);
+        final LongArrayList chunks = new LongArrayList();
+
+        for (int i = 0; i < count; ++i) {
+            final long pos = positions[i] = queue.poll();
+            final long chunk = pos & mChunk;
+            int id = chunkIds.get(chunk);
+
+            if (id == -1) {
+                id = chunks.size();
+                chunks.add(chunk);
+                chunkIds.put(chunk, id);
+            }
+
+            positionChunks[i] = id;
+        }
+
+        //join chunks whose margins overlap
+        final int[] parent = new int[chunks.size()];
+
+        for (int i = 0; i < parent.length; ++i) {
+            parent[i] = i;
+        }
+
+        final int range = 2 * REGION_MARGIN;
+
+        for (int i = 0; i < parent.length; ++i) {
+            final long chunk = chunks.getLong(i);
+            final long chunkX = chunk >> (sX + 4) & (mX >> 4);
+            final long chunkZ = chunk >> (sZ + 4) & (mZ >> 4);
+
+            for (long x = Math.max(0, chunkX - range); x <= Math.min(mX >> 4, chunkX + range); ++x) {
+                for (long z = Math.max(0, chunkZ - range); z <= Math.min(mZ >> 4, chunkZ + range); ++z) {
+                    final int other = chunkIds.get((x << (sX + 4)) | (z << (sZ + 4)));
+
+                    if (other > i) {
+                        final int a = findRoot(parent, i);
+                        final int b = findRoot(parent, other);
+
+                        //keep the earliest chunk as root so group order follows queue order
+                        if (a < b) {
+                            parent[b] = a;
+                        } else if (b < a) {
+                            parent[a] = b;
+                        }
+                    }
+                }
+            }
+        }
+
+        final int[] chunkGroups = new int[parent.length];
+        final IntArrayList groupSizes = new IntArrayList();
+
+        for (int i = 0; i < parent.length; ++i) {
+            final int root = findRoot(parent, i);
+            chunkGroups[i] = root == i ? groupSizes.size() : chunkGroups[root];
+
+            if (root == i) {
+                groupSizes.add(0);
+            }
+        }
+
+        final int groupCount = groupSizes.size();
+        final int workerCount = Math.min(groupCount, parallelPool.getParallelism());
+
+        if (workerCount < 2) {
+            for (int i = 0; i < count; ++i) {
+                queue.add(positions[i]);
+            }
+
+            return false;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            final int group = chunkGroups[positionChunks[i]];
+            groupSizes.set(group, groupSizes.getInt(group) + 1);
+        }
+
+        //largest groups first, each onto the least loaded worker
+        final Integer[] order = new Integer[groupCount];
+
+        for (int i = 0; i < groupCount; ++i) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> groupSizes.getInt(b) - groupSizes.getInt(a));
+
+        final int[] groupWorkers = new int[groupCount];
+        final long[] workerLoads = new long[workerCount];
+
+        for (final int group : order) {
+            int best = 0;
+
+            for (int w = 1; w < workerCount; ++w) {
+                if (workerLoads[w] < workerLoads[best]) {
+                    best = w;
+                }
+            }
+
+            groupWorkers[group] = best;
+            workerLoads[best] += groupSizes.getInt(group);
+        }
+
+        while (this.workers.size() < workerCount) {
+            this.workers.add(new LightingEngine(this.world, true));
+        }
+
+        for (int i = 0; i < count; ++i) {
+            this.workers.get(groupWorkers[chunkGroups[positionChunks[i]]]).queuedLightUpdates[lightType.ordinal()].add(positions[i]);
+        }
+
+        this.pendingChunks[lightType.ordinal()].clear();
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(workerCount);
+
+        for (int w = 0; w < workerCount; ++w) {
+            final LightingEngine worker = this.workers.get(w);
+            tasks.add(() -> {
+                worker.procLightUpdates(lightType);
+                return null;
+            });
+        }
+
+        this.updating = true;
+        this.profiler.startSection("lighting");
+
+        try {
+            for (final Future<Void> task : parallelPool.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for light workers", e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Light worker failed", e.getCause());
+        } finally {
+            this.profiler.endSection();
+            this.updating = false;
+        }
+
+        //workers are done, hand their notifications to the world from the main thread
+        for (int w = 0; w < workerCount; ++w) {
+            final PooledLongQueue notifications = this.workers.get(w).workerNotifications;
+
+            while (!notifications.isEmpty()) {
+                this.world.notifyLightSet(longToPos(this.curPos, notifications.poll()));
+            }
+        }
+
+        return true;
+    }
+
+    private static int findRoot(final int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i] = parent[parent[i]];
+        }
+
+        return i;
+    }
+
     /**
      * Gets data for neighbors of <code>curPos</code> and saves the results into neighbor state data members. If a neighbor can't be accessed/doesn't exist, the corresponding entry in <code>neighborChunks</code> is <code>null</code> - others are not reset
      */
@@ -9,10 +9,10 @@ import java.util.List;
 
 import carpet.logging.LoggerRegistry;
 import carpet.utils.Messenger;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import net.minecraft.entity.item.EntityMinecartTNT;
 import net.minecraft.util.text.ITextComponent;
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
@@ -39,6 +39,8 @@ import net.minecraft.world.Explosion;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 
+import javax.annotation.Nullable;
+
 public class OptimizedTNT
 {
     private static List<Entity> entitylist;
@@ -47,31 +49,63 @@ public class OptimizedTNT
     // For disabling the explosion particles and sound
     public static int explosionSound = 0;
 
-    private static Object2DoubleOpenHashMap<Pair<Vec3d, AxisAlignedBB>> densityCache = new Object2DoubleOpenHashMap<>();
-    private static MutablePair<Vec3d, AxisAlignedBB> pairMutable = new MutablePair<>();
-    private static Object2ObjectOpenHashMap<BlockPos, IBlockState> stateCache = new Object2ObjectOpenHashMap<>();
+    // Density per explosion position, then per entity box. The boxes are the entities' own immutable ones
+    private static Object2ObjectOpenHashMap<Vec3d, Object2DoubleOpenHashMap<AxisAlignedBB>> densityCache = new Object2ObjectOpenHashMap<>();
+    private static ArrayList<Object2DoubleOpenHashMap<AxisAlignedBB>> densityCachePool = new ArrayList<>();
     private static BlockPos.MutableBlockPos posMutable = new BlockPos.MutableBlockPos(0, 0, 0);
     private static ObjectOpenHashSet<BlockPos> affectedBlockPositionsSet = new ObjectOpenHashSet<>();
     private static boolean firstRay;
     private static boolean rayCalcDone;
-    private static ArrayList<Float> chances = new ArrayList<>();
+    private static FloatArrayList chances = new FloatArrayList();
+
+    // Block states by BlockPos.toLong(), an entry is only valid if it was written in the current generation,
+    // so clearing the cache between explosions doesn't have to touch the table
+    private static final int MAX_CACHED_STATES = 1 << 16;
+    private static Long2IntOpenHashMap stateSlots = new Long2IntOpenHashMap();
+    private static IBlockState[] slotStates = new IBlockState[1024];
+    private static int[] slotGenerations = new int[1024];
+    private static int slotCount = 0;
+    private static int stateGeneration = 1;
+
+    // Rays by explosion position, walked again by explosions from there while the block states are cached
+    private static final int MAX_RAY_SOURCES = 16;
+    private static Object2ObjectOpenHashMap<Vec3d, RaySet> raySets = new Object2ObjectOpenHashMap<>();
+    private static RaySet rays;
+    private static int rayIndex;
+
+    static {
+        stateSlots.defaultReturnValue(-1);
+    }
     private static BlockPos blastChanceLocation;
     private static boolean minecartTNT;
 
+    // Counts block changes in all chunks, the state and density caches are only
+    // shared between explosions of the same tick while this doesn't change
+    public static int blockChanges;
+    private static int cachedBlockChanges;
+    private static long cachedTick = -1;
+    // the dimension rather than the world, which would keep an unloaded world alive
+    private static int cachedDimension;
+
     public static void doExplosionA(Explosion e) {
         blastCalc(e);
+        validateCaches(e);
 
         if (!CarpetSettings.explosionNoBlockDamage) {
             rayCalcDone = false;
             firstRay = true;
             minecartTNT = e.exploder instanceof EntityMinecartTNT;
+            rays = getRays(e);
+            rayIndex = 0;
 			getAffectedPositionsOnPlaneY(e,  0,  0, 15,  0, 15); // bottom
 			getAffectedPositionsOnPlaneY(e, 15,  0, 15,  0, 15); // top
 			getAffectedPositionsOnPlaneX(e,  0,  1, 14,  0, 15); // west
 			getAffectedPositionsOnPlaneX(e, 15,  1, 14,  0, 15); // east
 			getAffectedPositionsOnPlaneZ(e,  0,  1, 14,  1, 14); // north
 			getAffectedPositionsOnPlaneZ(e, 15,  1, 14,  1, 14); // south
-			stateCache.clear();
+            if (!CarpetSettings.optimizedTNTBatching) {
+                clearStateCache();
+            }
 
             e.affectedBlockPositions.addAll(affectedBlockPositionsSet);
             affectedBlockPositionsSet.clear();
@@ -131,18 +165,7 @@ public class OptimizedTNT
                         d5 = d5 / d13;
                         d7 = d7 / d13;
                         d9 = d9 / d13;
-                        double density;
-
-						pairMutable.setLeft(vec3d);
-						pairMutable.setRight(entity.getEntityBoundingBox());
-						density = densityCache.getOrDefault(pairMutable, Double.MAX_VALUE);
-
-						if (density == Double.MAX_VALUE)
-						{
-							Pair<Vec3d, AxisAlignedBB> pair = Pair.of(vec3d, entity.getEntityBoundingBox());
-							density = e.world.getBlockDensity(vec3d, entity.getEntityBoundingBox());
-							densityCache.put(pair, density);
-						}
+                        double density = getCachedDensity(e.world, vec3d, entity.getEntityBoundingBox());
 
                         double d10 = (1.0D - d12) * density;
                         entity.attackEntityFrom(DamageSource.causeExplosionDamage(e),
@@ -170,9 +193,123 @@ public class OptimizedTNT
             }
         }
 
+        if (!CarpetSettings.optimizedTNTBatching) {
+            clearDensityCache();
+        }
+    }
+
+    @Nullable
+    private static IBlockState getCachedState(long key) {
+        int slot = stateSlots.get(key);
+        return slot != -1 && slotGenerations[slot] == stateGeneration ? slotStates[slot] : null;
+    }
+
+    private static void cacheState(long key, IBlockState state) {
+        int slot = stateSlots.get(key);
+
+        if (slot == -1) {
+            slot = slotCount++;
+
+            if (slot == slotStates.length) {
+                slotStates = Arrays.copyOf(slotStates, slot * 2);
+                slotGenerations = Arrays.copyOf(slotGenerations, slot * 2);
+            }
+
+            stateSlots.put(key, slot);
+        }
+
+        slotStates[slot] = state;
+        slotGenerations[slot] = stateGeneration;
+    }
+
+    /**
+     * The rays of the position of the explosion, if they can be shared with the other explosions there.
+     * Other exploders than TNT can resist blocks differently or keep blocks from being destroyed.
+     */
+    @Nullable
+    private static RaySet getRays(Explosion e) {
+        if (!CarpetSettings.optimizedTNTBatching || e.exploder != null && e.exploder.getClass() != EntityTNTPrimed.class) {
+            return null;
+        }
+
+        Vec3d source = new Vec3d(e.x, e.y, e.z);
+        RaySet set = raySets.get(source);
+
+        if (set == null || set.size != e.size) {
+            if (raySets.size() >= MAX_RAY_SOURCES) {
+                raySets.clear();
+            }
+
+            set = new RaySet(e.size);
+            raySets.put(source, set);
+        }
+
+        return set;
+    }
+
+    private static void clearStateCache() {
+        // positions from old generations stay in the table, start over once there are too many
+        if (slotCount > MAX_CACHED_STATES) {
+            stateSlots.clear();
+            stateSlots.trim();
+            Arrays.fill(slotStates, 0, slotCount, null);
+            slotCount = 0;
+        }
+
+        stateGeneration++;
+        // the rays were walked through the cached states
+        raySets.clear();
+    }
+
+    private static double getCachedDensity(World world, Vec3d vec3d, AxisAlignedBB box) {
+        Object2DoubleOpenHashMap<AxisAlignedBB> boxes = densityCache.get(vec3d);
+
+        if (boxes == null) {
+            boxes = densityCachePool.isEmpty() ? new Object2DoubleOpenHashMap<>() : densityCachePool.remove(densityCachePool.size() - 1);
+            boxes.defaultReturnValue(Double.MAX_VALUE);
+            densityCache.put(vec3d, boxes);
+        }
+
+        double density = boxes.getDouble(box);
+
+        if (density == Double.MAX_VALUE) {
+            density = world.getBlockDensity(vec3d, box);
+            boxes.put(box, density);
+        }
+
+        return density;
+    }
+
+    private static void clearDensityCache() {
+        if (densityCache.isEmpty()) {
+            return;
+        }
+
+        for (Object2DoubleOpenHashMap<AxisAlignedBB> boxes : densityCache.values()) {
+            boxes.clear();
+            densityCachePool.add(boxes);
+        }
+
         densityCache.clear();
     }
 
+    /**
+     * Drops the cached block states and densities unless the previous explosion
+     * happened in the same dimension and tick, and no block changed since.
+     */
+    private static void validateCaches(Explosion e) {
+        long tick = e.world.getTotalWorldTime();
+        int dimension = e.world.provider.getDimensionType().getId();
+
+        if (cachedDimension != dimension || cachedTick != tick || cachedBlockChanges != blockChanges) {
+            clearStateCache();
+            clearDensityCache();
+            cachedDimension = dimension;
+            cachedTick = tick;
+            cachedBlockChanges = blockChanges;
+        }
+    }
+
     public static void doExplosionB(Explosion e, boolean spawnParticles)
     {
         World world = e.world;
@@ -399,6 +536,11 @@ public class OptimizedTNT
         float rand = e.world.rand.nextFloat();
         float sizeRand = (CarpetSettings.tntRandomRange >= 0 ? (float) CarpetSettings.tntRandomRange : rand);
         float size = e.size * (0.7F + sizeRand * 0.6F);
+
+        if (rays != null) {
+            return followRay(e, rays.get(rayIndex++, e, xInc, yInc, zInc), size);
+        }
+
         double posX = e.x;
         double posY = e.y;
         double posZ = e.z;
@@ -406,16 +548,15 @@ public class OptimizedTNT
         for (float f1 = 0.3F; size > 0.0F; size -= 0.22500001F)
         {
             posMutable.setPos(posX, posY, posZ);
+            long key = posMutable.toLong();
 
             // Don't query already cached positions again from the world
-            IBlockState state = stateCache.get(posMutable);
-            BlockPos posImmutable = null;
+            IBlockState state = getCachedState(key);
 
             if (state == null)
             {
-                posImmutable = posMutable.toImmutable();
-                state = e.world.getBlockState(posImmutable);
-                stateCache.put(posImmutable, state);
+                state = e.world.getBlockState(posMutable);
+                cacheState(key, state);
             }
 
             if (state.getMaterial() != Material.AIR)
@@ -436,7 +577,11 @@ public class OptimizedTNT
 
             if (size > 0.0F && (e.exploder == null || e.exploder.canExplosionDestroyBlock(e, e.world, posMutable, state, size)))
             {
-                affectedBlockPositionsSet.add(posImmutable != null ? posImmutable : posMutable.toImmutable());
+                // Only copy positions the set doesn't have yet, the set keeps its vanilla iteration order
+                if (!affectedBlockPositionsSet.contains(posMutable))
+                {
+                    affectedBlockPositionsSet.add(posMutable.toImmutable());
+                }
             }
             else if (firstRay && !minecartTNT)
             {
@@ -454,6 +599,113 @@ public class OptimizedTNT
         return false;
     }
 
+    /**
+     * Same as the loop of {@link #checkAffectedPosition}, on the blocks the ray went through before.
+     */
+    private static boolean followRay(Explosion e, Ray ray, float size) {
+        for (int step = 0; size > 0.0F; size -= 0.22500001F, step++) {
+            if (step == ray.length) {
+                ray.walk(e);
+            }
+
+            size -= ray.resistances[step];
+
+            if (size > 0.0F) {
+                if (!affectedBlockPositionsSet.contains(ray.positions[step])) {
+                    affectedBlockPositionsSet.add(ray.positions[step]);
+                }
+            }
+            else if (firstRay) {
+                rayCalcDone = true;
+                return true;
+            }
+
+            firstRay = false;
+        }
+
+        return false;
+    }
+
+    /**
+     * The rays of explosions of one size from one position, in the order they are cast.
+     */
+    private static class RaySet {
+        final float size;
+        final Ray[] rays = new Ray[16 * 16 * 16 - 14 * 14 * 14];
+
+        RaySet(float size) {
+            this.size = size;
+        }
+
+        Ray get(int index, Explosion e, double xInc, double yInc, double zInc) {
+            Ray ray = rays[index];
+
+            if (ray == null) {
+                ray = rays[index] = new Ray(e, xInc, yInc, zInc);
+            }
+
+            return ray;
+        }
+    }
+
+    /**
+     * The blocks a ray went through as far as it was followed, and how much each of them weakens it.
+     * Only the strength of the ray differs between explosions from the same position, so they go the
+     * same way for as long as none of the blocks changed.
+     */
+    private static class Ray {
+        final double xInc;
+        final double yInc;
+        final double zInc;
+        double x;
+        double y;
+        double z;
+        BlockPos[] positions = new BlockPos[8];
+        float[] resistances = new float[8];
+        int length;
+
+        Ray(Explosion e, double xInc, double yInc, double zInc) {
+            this.xInc = xInc;
+            this.yInc = yInc;
+            this.zInc = zInc;
+            this.x = e.x;
+            this.y = e.y;
+            this.z = e.z;
+        }
+
+        void walk(Explosion e) {
+            posMutable.setPos(x, y, z);
+            long key = posMutable.toLong();
+            IBlockState state = getCachedState(key);
+
+            if (state == null) {
+                state = e.world.getBlockState(posMutable);
+                cacheState(key, state);
+            }
+
+            float resistance = 0.0F;
+
+            if (state.getMaterial() != Material.AIR) {
+                float blockResistance = e.exploder != null
+                        ? e.exploder.getExplosionResistance(e, e.world, posMutable, state)
+                        : state.getBlock().getExplosionResistance(null);
+                resistance = (blockResistance + 0.3F) * 0.3F;
+            }
+
+            if (length == positions.length) {
+                positions = Arrays.copyOf(positions, length * 2);
+                resistances = Arrays.copyOf(resistances, length * 2);
+            }
+
+            positions[length] = posMutable.toImmutable();
+            resistances[length] = resistance;
+            length++;
+            x += xInc;
+            y += yInc;
+            z += zInc;
+        }
+    }
+
     public static void setBlastChanceLocation(BlockPos p){
         blastChanceLocation = p;
     }
@@ -479,7 +731,7 @@ public class OptimizedTNT
                         boolean found = false;
 
                         for (float f1 = 0.3F; f > 0.0F; f -= 0.22500001F) {
-                            BlockPos blockpos = new BlockPos(d4, d6, d8);
+                            BlockPos blockpos = posMutable.setPos(d4, d6, d8);
                             IBlockState iblockstate = e.world.getBlockState(blockpos);
 
                             if (iblockstate.getMaterial() != Material.AIR) {
@@ -515,7 +767,8 @@ public class OptimizedTNT
         boolean fullyBlownUp = false;
         boolean first = true;
         int rays = 0;
-        for(float f3 : chances){
+        for(int i = 0; i < chances.size(); i++){
+            float f3 = chances.getFloat(i);
             rays++;
             double calc = f3 - randMax;
                 if(calc > 0) fullyBlownUp = true;
@@ -0,0 +1,161 @@
+package carpet.helpers;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+
+/**
+ * Positions of the nether portal blocks of each chunk, so finding the portal to teleport to doesn't
+ * have to look at every block within 128 blocks. A chunk is scanned once, the first time a search
+ * needs it, and from then on block changes keep its portal blocks up to date. They are saved with
+ * the chunk, so they always match the blocks saved with it, also for chunks that are regenerated,
+ * reloaded by savestate protection or saved by a server without this index.
+ */
+public class PortalIndex
+{
+    private static final String TAG = "CarpetPortals";
+    private static final int RADIUS = 128;
+
+    /**
+     * The portal a search from the position finds, exactly like the column scan of
+     * Teleporter.placeInExistingPortal: the lowest block of the nearest column of portal blocks, the
+     * first in the order of the scan if several are as near.
+     */
+    @Nullable
+    public static BlockPos findNearestPortal(World world, BlockPos origin)
+    {
+        int top = world.getActualHeight() - 1;
+        int minX = origin.getX() - RADIUS;
+        int maxX = origin.getX() + RADIUS;
+        int minZ = origin.getZ() - RADIUS;
+        int maxZ = origin.getZ() + RADIUS;
+        int bestX = 0;
+        int bestY = 0;
+        int bestZ = 0;
+        double bestDistance = -1.0D;
+
+        // the scan loads chunks in this order, which matters for chunks that still need populating
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++)
+        {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++)
+            {
+                IntSet portals = getPortalBlocks(world.getChunk(chunkX, chunkZ));
+                for (IntIterator it = portals.iterator(); it.hasNext(); )
+                {
+                    int packed = it.nextInt();
+                    int x = chunkX << 4 | packed & 15;
+                    int y = packed >> 8;
+                    int z = chunkZ << 4 | packed >> 4 & 15;
+                    // the scan starts at the top of the world and goes down to the bottom of each column of portal blocks
+                    if (x < minX || x > maxX || z < minZ || z > maxZ || y > top || y > 0 && portals.contains(packed - 256))
+                        continue;
+
+                    double dx = x - origin.getX();
+                    double dy = y - origin.getY();
+                    double dz = z - origin.getZ();
+                    double distance = dx * dx + dy * dy + dz * dz;
+                    if (bestDistance < 0.0D || distance < bestDistance || distance == bestDistance && isScannedBefore(x, y, z, bestX, bestY, bestZ))
+                    {
+                        bestDistance = distance;
+                        bestX = x;
+                        bestY = y;
+                        bestZ = z;
+                    }
+                }
+            }
+        }
+        if (bestDistance < 0.0D)
+            return null;
+
+        BlockPos best = new BlockPos(bestX, bestY, bestZ);
+        // the saved index can be stale if the chunk was edited by a program that doesn't know about it
+        if (world.getBlockState(best).getBlock() != Blocks.PORTAL)
+        {
+            Chunk chunk = world.getChunk(best);
+            chunk.portalBlocks = null;
+            getPortalBlocks(chunk);
+            // also without portals, so the stale index isn't loaded again
+            chunk.markDirty();
+            return findNearestPortal(world, origin);
+        }
+        return best;
+    }
+
+    /**
+     * Called when a block of the chunk changed from or to a portal block.
+     */
+    public static void onBlockChanged(Chunk chunk, BlockPos pos, Block block)
+    {
+        if (chunk.portalBlocks == null)
+            return;
+        int packed = pack(pos.getX() & 15, pos.getY(), pos.getZ() & 15);
+        if (block == Blocks.PORTAL)
+            chunk.portalBlocks.add(packed);
+        else
+            chunk.portalBlocks.remove(packed);
+    }
+
+    public static void writeToNBT(Chunk chunk, NBTTagCompound compound)
+    {
+        if (chunk.portalBlocks != null)
+            compound.setIntArray(TAG, chunk.portalBlocks.toIntArray());
+    }
+
+    public static void readFromNBT(Chunk chunk, NBTTagCompound compound)
+    {
+        if (compound.hasKey(TAG, 11))
+            chunk.portalBlocks = new IntOpenHashSet(compound.getIntArray(TAG));
+    }
+
+    private static IntSet getPortalBlocks(Chunk chunk)
+    {
+        if (chunk.portalBlocks == null)
+        {
+            IntSet portals = new IntOpenHashSet();
+            for (ExtendedBlockStorage section : chunk.getBlockStorageArray())
+            {
+                if (section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty())
+                    continue;
+                for (int y = 0; y < 16; y++)
+                {
+                    for (int z = 0; z < 16; z++)
+                    {
+                        for (int x = 0; x < 16; x++)
+                        {
+                            if (section.get(x, y, z).getBlock() == Blocks.PORTAL)
+                                portals.add(pack(x, section.getYLocation() + y, z));
+                        }
+                    }
+                }
+            }
+            chunk.portalBlocks = portals;
+            // chunks without portals are just scanned again after they are reloaded
+            if (!portals.isEmpty())
+                chunk.markDirty();
+        }
+        return chunk.portalBlocks;
+    }
+
+    private static boolean isScannedBefore(int x, int y, int z, int otherX, int otherY, int otherZ)
+    {
+        if (x != otherX)
+            return x < otherX;
+        if (z != otherZ)
+            return z < otherZ;
+        return y > otherY;
+    }
+
+    private static int pack(int x, int y, int z)
+    {
+        return y << 8 | z << 4 | x;
+    }
+}
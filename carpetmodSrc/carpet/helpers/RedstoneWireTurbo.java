@@ -4,10 +4,12 @@ package carpet.helpers;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 import javax.annotation.Nullable;
 
@@ -132,52 +134,24 @@ public class RedstoneWireTurbo
      * Note that this ordering is only used to create the initial list of neighbors.  Once
      * the direction of signal flow is identified, the ordering of updates is completely 
      * reorganized.
+     *
+     * Neighbor positions are computed from these offsets only for positions the search
+     * has not reached before, so known positions don't cost any allocations.
     */
-    public static BlockPos[] computeAllNeighbors(final BlockPos pos) {
-        final int x = pos.getX();
-        final int y = pos.getY();
-        final int z = pos.getZ();
-        final BlockPos[] n = new BlockPos[24];
- 
-        // Immediate neighbors, in the same order as 
-        // World.notifyNeighborsOfStateChange, etc.:
-        // west, east, down, up, north, south
-        n[ 0] = new BlockPos(x-1, y  , z  ); 
-        n[ 1] = new BlockPos(x+1, y  , z  ); 
-        n[ 2] = new BlockPos(x  , y-1, z  ); 
-        n[ 3] = new BlockPos(x  , y+1, z  ); 
-        n[ 4] = new BlockPos(x  , y  , z-1); 
-        n[ 5] = new BlockPos(x  , y  , z+1); 
-     
-        // Neighbors of neighbors, in the same order,
-        // except that duplicates are not included
-        n[ 6] = new BlockPos(x-2, y  , z  );  
-        n[ 7] = new BlockPos(x-1, y-1, z  );
-        n[ 8] = new BlockPos(x-1, y+1, z  );
-        n[ 9] = new BlockPos(x-1, y  , z-1);
-        n[10] = new BlockPos(x-1, y  , z+1);
-        n[11] = new BlockPos(x+2, y  , z  );
-        n[12] = new BlockPos(x+1, y-1, z  );
-        n[13] = new BlockPos(x+1, y+1, z  );
-        n[14] = new BlockPos(x+1, y  , z-1);
-        n[15] = new BlockPos(x+1, y  , z+1);
-        n[16] = new BlockPos(x  , y-2, z  );
-        n[17] = new BlockPos(x  , y-1, z-1);
-        n[18] = new BlockPos(x  , y-1, z+1);
-        n[19] = new BlockPos(x  , y+2, z  );
-        n[20] = new BlockPos(x  , y+1, z-1);
-        n[21] = new BlockPos(x  , y+1, z+1);
-        n[22] = new BlockPos(x  , y  , z-2);
-        n[23] = new BlockPos(x  , y  , z+2);
-        return n;
-    }
+    // Offsets of the neighbors.  Immediate neighbors first, in the same order as
+    // World.notifyNeighborsOfStateChange, etc.: west, east, down, up, north, south.
+    // Then the neighbors of those neighbors, without the block itself and without
+    // duplicates, in the order they would have been updated.
+    private static final int[] neighbor_dx = {-1, 1, 0, 0, 0, 0, -2, -1, -1, -1, -1, 2, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] neighbor_dy = {0, 0, -1, 1, 0, 0, 0, -1, 1, 0, 0, 0, -1, 1, 0, 0, -2, -1, -1, 2, 1, 1, 0, 0};
+    private static final int[] neighbor_dz = {0, 0, 0, 0, -1, 1, 0, 0, 0, -1, 1, 0, 0, 0, -1, 1, 0, -1, 1, 0, -1, 1, -2, 2};
  
     /*
      * We only want redstone wires to update redstone wires that are
      * immediately adjacent.  Some more distant updates can result
      * in cross-talk that (a) wastes time and (b) can make the update
      * order unintuitive.  Therefore (relative to the neighbor order
-     * computed by computeAllNeighbors), updates are not scheduled
+     * computed from the offsets above), updates are not scheduled
      * for redstone wire in those non-connecting positions.  On the
      * other hand, updates will always be sent to *other* types of blocks
      * in any of the 24 neighboring positions.
@@ -255,7 +229,7 @@ public class RedstoneWireTurbo
      
     /*
      * Input:  Array of UpdateNode objects in an order corresponding to the positions 
-     *         computed by computeAllNeighbors above.
+     *         computed from the neighbor offsets above.
      * Output: Array of UpdateNode objects oriented using the above remapping tables
      *         corresponding to the identified heading (direction of information flow).
      */
@@ -276,21 +250,69 @@ public class RedstoneWireTurbo
         }
          
         IBlockState currentState;       // Keep track of redstone wire value
-        UpdateNode[] neighbor_nodes;    // References to neighbors (directed graph edges)
+        final UpdateNode[] neighbor_nodes = new UpdateNode[24]; // References to neighbors (directed graph edges)
+        boolean expanded;               // Whether neighbor_nodes has been filled in by findNeighbors
         BlockPos self;                  // UpdateNode's own position
         BlockPos parent;                // Which block pos spawned/updated this node
         Type type = Type.UNKNOWN;       // unknown, redstone wire, other type of block
         int layer;                      // Highest layer this node is scheduled in
         boolean visited;                // To keep track of information flow direction, visited restone wire is marked
         int xbias, zbias;               // Remembers directionality of ancestor nodes; helps eliminate directional ambiguities.
+
+        // Nodes are reused for later searches, so everything but the neighbor
+        // array is set up again.  The neighbor array is only read once expanded.
+        void reset(final BlockPos self, final BlockPos parent) {
+            this.currentState = null;
+            this.expanded = false;
+            this.self = self;
+            this.parent = parent;
+            this.type = Type.UNKNOWN;
+            this.layer = 0;
+            this.visited = false;
+            this.xbias = 0;
+            this.zbias = 0;
+        }
     }
      
      
     /*
      * Keep track of all block positions discovered during search and their current states.
-     * We want to remember one entry for each position.
+     * We want to remember one entry for each position.  Positions are keyed by
+     * BlockPos.toLong, so looking up a neighbor doesn't need a BlockPos.
+     */
+    private final Long2ObjectMap<UpdateNode> nodeCache = new Long2ObjectOpenHashMap<>();
+
+    /*
+     * UpdateNode objects are reused for every search instead of being allocated for
+     * every position reached.  Those in use are the first nodesInUse of the pool, they
+     * are all given back when the search is completed and the node cache is cleared.
      */
-    private final Map<BlockPos, UpdateNode> nodeCache = new HashMap<>();
+    private final List<UpdateNode> nodePool = new ArrayList<>();
+    private int nodesInUse = 0;
+
+    /*
+     * Temporary arrays of neighbors in cardinal ordering for findNeighbors, one for each
+     * level of nesting, as identifying a neighbor can update blocks which in turn update
+     * redstone wire in the middle of the search.
+     */
+    private final List<UpdateNode[]> cardinalNeighbors = new ArrayList<>();
+    private int findNeighborsDepth = 0;
+
+    private UpdateNode newNode(final BlockPos self, final BlockPos parent) {
+        if (nodesInUse == nodePool.size()) {
+            nodePool.add(new UpdateNode());
+        }
+        final UpdateNode upd = nodePool.get(nodesInUse++);
+        upd.reset(self, parent);
+        return upd;
+    }
+
+    /*
+     * Same as BlockPos.toLong, for neighbor positions without a BlockPos.
+     */
+    private static long toLong(final int x, final int y, final int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) y & 0xFFFL) << 26 | (long) z & 0x3FFFFFFL;
+    }
  
  
     /*
@@ -466,27 +488,33 @@ public class RedstoneWireTurbo
      */
     private void findNeighbors(final World worldIn, final UpdateNode upd1) {
         final BlockPos pos = upd1.self;
- 
-        // Get the list of neighbor coordinates
-        final BlockPos[] neighbors = computeAllNeighbors(pos);
+        final int x = pos.getX();
+        final int y = pos.getY();
+        final int z = pos.getZ();
  
         // Temporary array of neighbors in cardinal ordering
-        final UpdateNode[] neighbor_nodes = new UpdateNode[24];
+        if (findNeighborsDepth == cardinalNeighbors.size()) {
+            cardinalNeighbors.add(new UpdateNode[24]);
+        }
+        final UpdateNode[] neighbor_nodes = cardinalNeighbors.get(findNeighborsDepth++);
+        Arrays.fill(neighbor_nodes, null);
  
         // Target array of neighbors sorted left-to-right
-        upd1.neighbor_nodes = new UpdateNode[24];
+        Arrays.fill(upd1.neighbor_nodes, null);
+        upd1.expanded = true;
  
         for (int i=0; i<24; i++) {
             // Look up each neighbor in the node cache
-            final BlockPos pos2 = neighbors[i];
-            UpdateNode upd2 = nodeCache.get(pos2);
+            final int x2 = x + neighbor_dx[i];
+            final int y2 = y + neighbor_dy[i];
+            final int z2 = z + neighbor_dz[i];
+            final long key2 = toLong(x2, y2, z2);
+            UpdateNode upd2 = nodeCache.get(key2);
             if (upd2 == null) {
                 // If this is a previously unreached position, create
                 // a new update node, add it to the cache, and identify what it is.
-                upd2 = new UpdateNode();
-                upd2.self = pos2;
-                upd2.parent = pos;
-                nodeCache.put(pos2, upd2);
+                upd2 = newNode(new BlockPos(x2, y2, z2), pos);
+                nodeCache.put(key2, upd2);
                 identifyNode(worldIn, upd2);
             }
  
@@ -549,6 +577,7 @@ public class RedstoneWireTurbo
         // Reorder neighboring UpdateNode objects according to the forward direction
         // determined above.
         orientNeighbors(neighbor_nodes, upd1.neighbor_nodes, heading);
+        findNeighborsDepth--;
     }
  
     /*
@@ -556,15 +585,12 @@ public class RedstoneWireTurbo
      * in layers N+1 and N+2;
      */
     private void propagateChanges(final World worldIn, final UpdateNode upd1, final int layer) {
-        if (upd1.neighbor_nodes == null) {
+        if (!upd1.expanded) {
             // If this node has not been expanded yet, find its neigbors
             findNeighbors(worldIn, upd1);
         }
  
         final BlockPos pos = upd1.self;
-        final int x = pos.getX();
-        final int y = pos.getY();
-        final int z = pos.getZ();
  
         // Make sure there are enough layers in the list
         //while (updateLayers.size() <= layer+2) updateLayers.add(new ArrayList<UpdateNode>());
@@ -708,33 +734,31 @@ public class RedstoneWireTurbo
         if (source != null) {
             // If the cause of the redstone wire update is known, we can use that to help determine
             // direction of information flow.
-            UpdateNode src = nodeCache.get(source);
+            final long sourceKey = source.toLong();
+            UpdateNode src = nodeCache.get(sourceKey);
             if (src == null) {
-                src = new UpdateNode();
-                src.self = source;
-                src.parent = source;
+                src = newNode(source, source);
                 src.visited = true;
                 identifyNode(worldIn, src);
-                nodeCache.put(source, src);
+                nodeCache.put(sourceKey, src);
             }
         }
  
         // Find or generate a node for the redstone block position receiving the update
-        UpdateNode upd = nodeCache.get(pos);
+        final long key = pos.toLong();
+        UpdateNode upd = nodeCache.get(key);
         if (upd == null) {
-            upd = new UpdateNode();
-            upd.self = pos;
-            upd.parent = pos;
+            upd = newNode(pos, pos);
             upd.visited = true;
             identifyNode(worldIn, upd);
-            nodeCache.put(pos, upd);
+            nodeCache.put(key, upd);
         }
         upd.currentState = newState;
  
         // Receiving this block update may mean something in the world changed.
         // Therefore we clear the cached block info about all neighbors of
         // the position receiving the update and then re-identify what they are.
-        if (upd.neighbor_nodes != null) {
+        if (upd.expanded) {
             for (int i=0; i<24; i++) {
                 final UpdateNode upd2 = upd.neighbor_nodes[i];
                 if (upd2 == null) continue;
@@ -789,24 +813,20 @@ public class RedstoneWireTurbo
         // If the source of the block update to the redstone wire at 'pos' is known, we can use
         // that to help determine the direction of information flow.
         if (source != null) {
-            final UpdateNode src = new UpdateNode();
-            src.self = source;
-            src.parent = source;
+            final UpdateNode src = newNode(source, source);
             src.visited = true;
-            nodeCache.put(source, src);
+            nodeCache.put(source.toLong(), src);
             identifyNode(worldIn, src);
         }
  
         // Create a node representing the block at 'pos', and then propagate updates
         // to its neighbors.  As stated above, the call to wire.calculateCurrentChanges
         // already performs the update to the block at 'pos', so it is not added to the schedule.
-        final UpdateNode upd = new UpdateNode();
-        upd.self = pos;
-        upd.parent = source!=null ? source : pos;
+        final UpdateNode upd = newNode(pos, source!=null ? source : pos);
         upd.currentState = newState;
         upd.type = UpdateNode.Type.REDSTONE;
         upd.visited = true;
-        nodeCache.put(pos, upd);
+        nodeCache.put(pos.toLong(), upd);
         propagateChanges(worldIn, upd, 0);
      
         // Perform the walk over all directly reachable redstone wire blocks, propagating wire value 
@@ -816,8 +836,9 @@ public class RedstoneWireTurbo
         // With the whole search completed, clear the list of all known blocks.
         // We do not want to keep around state information that may be changed by other code.
         // In theory, we could cache the neighbor block positions, but that is a separate
-        // optimization.
+        // optimization.  The nodes go back to the pool for the next search.
         nodeCache.clear();
+        nodesInUse = 0;
  
         return newState;
     }
@@ -857,7 +878,7 @@ public class RedstoneWireTurbo
         // following loop can affect the power level of the wire.  Therefore, the loop is 
         // skipped if k is already 15. 
         if (k<15) {
-            if (upd.neighbor_nodes == null) {
+            if (!upd.expanded) {
                 // If this node's neighbors are not known, expand the node
                 findNeighbors(worldIn, upd);
             }
@@ -0,0 +1,273 @@
+package carpet.helpers;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.NextTickListEntry;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pending tile ticks of a world in a timing wheel, replacing the hash set and tree set of WorldServer.
+ * Entries go into a slot for the tick they are scheduled for, so scheduling is a hash lookup and an
+ * append. A slot is sorted with {@link NextTickListEntry#compareTo}, by priority and then by insertion
+ * id, only if entries were appended out of that order, and slots are taken in order of their tick, so
+ * ticks run in exactly the order of the tree set. Entries are also indexed by chunk for saving and
+ * unloading chunks.
+ */
+public class TileTickWheel
+{
+    private static final int WHEEL_SIZE = 1024;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    // slots by tick modulo the wheel size, slots for ticks a multiple of the size apart are chained
+    private final Slot[] wheel = new Slot[WHEEL_SIZE];
+    // the scheduled entry for each position and block, by NextTickListEntry equality like the hash set,
+    // but open addressing never falls back to compareTo like a HashMap bin with many collisions does,
+    // which is what doubleTileTickSchedulingFix works around
+    private final Map<NextTickListEntry, NextTickListEntry> entries = new Object2ObjectOpenHashMap<>();
+    private final Long2ObjectMap<Set<NextTickListEntry>> entriesByChunk = new Long2ObjectOpenHashMap<>();
+    // no entry is scheduled before this tick
+    private long cursor;
+
+    private static class Slot
+    {
+        final long time;
+        Slot next;
+        final List<NextTickListEntry> entries = new ArrayList<>();
+        int head;
+        int live;
+        boolean sorted = true;
+
+        Slot(long time)
+        {
+            this.time = time;
+        }
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public boolean contains(NextTickListEntry entry)
+    {
+        return entries.containsKey(entry);
+    }
+
+    /**
+     * Schedules the entry, unless an equal one is already scheduled.
+     *
+     * @return whether the entry was added
+     */
+    public boolean add(NextTickListEntry entry)
+    {
+        if (entries.putIfAbsent(entry, entry) != null)
+            return false;
+
+        long time = entry.scheduledTime;
+        if (entries.size() == 1 || time < cursor)
+            cursor = time;
+
+        Slot slot = getSlot(time);
+        if (slot == null)
+        {
+            slot = new Slot(time);
+            slot.next = wheel[(int) time & MASK];
+            wheel[(int) time & MASK] = slot;
+        }
+        if (slot.head < slot.entries.size() && slot.entries.get(slot.entries.size() - 1).compareTo(entry) > 0)
+            slot.sorted = false;
+        slot.entries.add(entry);
+        slot.live++;
+
+        entriesByChunk.computeIfAbsent(chunkKey(entry.position), k -> new ReferenceOpenHashSet<>()).add(entry);
+        return true;
+    }
+
+    /**
+     * Removes the next entries in tick order and adds them to the list, like the cleaning loop of
+     * WorldServer.tickUpdates.
+     *
+     * @param now the current world time, later entries are kept unless all is set
+     * @param all whether to take entries scheduled after now as well
+     * @param limit the maximal number of entries to take
+     */
+    public void poll(long now, boolean all, int limit, List<NextTickListEntry> out)
+    {
+        int polled = 0;
+        while (polled < limit && !entries.isEmpty())
+        {
+            if (!all && cursor > now)
+                break;
+
+            Slot slot = getSlot(cursor);
+            if (slot == null)
+            {
+                // step through the wheel, unless that would take longer than looking at every slot
+                cursor = all || now - cursor > WHEEL_SIZE ? getFirstTime() : cursor + 1;
+                continue;
+            }
+
+            if (!slot.sorted)
+            {
+                slot.entries.subList(slot.head, slot.entries.size()).sort(null);
+                slot.sorted = true;
+            }
+            NextTickListEntry entry = slot.entries.get(slot.head++);
+            // entries of unloaded chunks stay in their slot until they are reached
+            if (entries.get(entry) != entry || entry.scheduledTime != slot.time)
+                continue;
+
+            remove(entry, slot);
+            out.add(entry);
+            polled++;
+        }
+        if (entries.isEmpty())
+            cursor = now + 1;
+    }
+
+    /**
+     * The entries with positions in the box, ignoring height, like WorldServer.getPendingBlockUpdates.
+     *
+     * @param remove whether to remove the entries
+     * @return the entries in tick order, or null if there are none
+     */
+    @Nullable
+    public List<NextTickListEntry> getEntriesIn(StructureBoundingBox box, boolean remove)
+    {
+        List<NextTickListEntry> list = null;
+        int minChunkX = box.minX >> 4;
+        int maxChunkX = (box.maxX - 1) >> 4;
+        int minChunkZ = box.minZ >> 4;
+        int maxChunkZ = (box.maxZ - 1) >> 4;
+
+        if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) > entriesByChunk.size())
+        {
+            for (Set<NextTickListEntry> chunk : entriesByChunk.values())
+                list = collectIn(chunk, box, list);
+        }
+        else
+        {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+            {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+                {
+                    Set<NextTickListEntry> chunk = entriesByChunk.get(ChunkPos.asLong(chunkX, chunkZ));
+                    if (chunk != null)
+                        list = collectIn(chunk, box, list);
+                }
+            }
+        }
+
+        if (list == null)
+            return null;
+        // the order of the tree set, which is the order they are saved and scheduled again in
+        list.sort(null);
+        if (remove)
+        {
+            for (NextTickListEntry entry : list)
+                remove(entry, getSlot(entry.scheduledTime));
+        }
+        return list;
+    }
+
+    /**
+     * All entries in tick order.
+     */
+    public List<NextTickListEntry> getEntries()
+    {
+        List<NextTickListEntry> list = new ArrayList<>(entries.values());
+        list.sort(null);
+        return list;
+    }
+
+    public void clear()
+    {
+        entries.clear();
+        entriesByChunk.clear();
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            wheel[i] = null;
+    }
+
+    private static List<NextTickListEntry> collectIn(Set<NextTickListEntry> chunk, StructureBoundingBox box, @Nullable List<NextTickListEntry> list)
+    {
+        for (NextTickListEntry entry : chunk)
+        {
+            BlockPos pos = entry.position;
+            if (pos.getX() >= box.minX && pos.getX() < box.maxX && pos.getZ() >= box.minZ && pos.getZ() < box.maxZ)
+            {
+                if (list == null)
+                    list = new ArrayList<>();
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    private void remove(NextTickListEntry entry, Slot slot)
+    {
+        entries.remove(entry);
+        long key = chunkKey(entry.position);
+        Set<NextTickListEntry> chunk = entriesByChunk.get(key);
+        chunk.remove(entry);
+        if (chunk.isEmpty())
+            entriesByChunk.remove(key);
+
+        if (--slot.live == 0)
+            unlink(slot);
+    }
+
+    @Nullable
+    private Slot getSlot(long time)
+    {
+        for (Slot slot = wheel[(int) time & MASK]; slot != null; slot = slot.next)
+        {
+            if (slot.time == time)
+                return slot;
+        }
+        return null;
+    }
+
+    private void unlink(Slot slot)
+    {
+        int index = (int) slot.time & MASK;
+        if (wheel[index] == slot)
+        {
+            wheel[index] = slot.next;
+            return;
+        }
+        for (Slot prev = wheel[index]; prev != null; prev = prev.next)
+        {
+            if (prev.next == slot)
+            {
+                prev.next = slot.next;
+                return;
+            }
+        }
+    }
+
+    private long getFirstTime()
+    {
+        long first = Long.MAX_VALUE;
+        for (Slot bucket : wheel)
+        {
+            for (Slot slot = bucket; slot != null; slot = slot.next)
+                first = Math.min(first, slot.time);
+        }
+        return first;
+    }
+
+    private static long chunkKey(BlockPos pos)
+    {
+        return ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+    }
+}
@@ -7,7 +7,7 @@ public class XPcombine {
 
     public static void searchForOtherXPNearbyCarpet(EntityXPOrb first)
     {
-        for (EntityXPOrb entityxp : first.world.getEntitiesWithinAABB(EntityXPOrb.class,
+        for (EntityXPOrb entityxp : EntityMergeIndex.getEntitiesWithinAABB(first.world, EntityXPOrb.class,
                 first.getEntityBoundingBox().expand(0.5D, 0.0D, 0.5D)))
         {
             combineItems(first, entityxp);
@@ -6,6 +6,9 @@ import net.minecraft.entity.Entity;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.text.ITextComponent;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 public class ExplosionLogHelper {
 
     // CARPET-SYLKOS
@@ -22,18 +25,43 @@ public class ExplosionLogHelper {
 
     public static boolean tickHasCompact = false;
 
+    // Heap allocated by the server thread while the explosion runs, -1 if the JVM can't tell
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static long allocatedInCurrentPos = 0;
+    private final long allocatedAtStart;
+    private long allocated = -1;
+
     public ExplosionLogHelper(Entity entity, double x, double y, double z, float power, boolean createFire) { // blocks removed
         this.entity = entity;
         this.pos = new Vec3d(x, y, z);
+        this.allocatedAtStart = allocatedBytes();
+    }
+
+    private static long allocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static String allocation(long bytes) {
+        return bytes < 0 ? "g " : String.format("g  %.1fkB alloc", bytes / 1024.0);
     }
 
     public void onExplosionDone(long gametime) {
+        if (allocatedAtStart >= 0) {
+            allocated = allocatedBytes() - allocatedAtStart;
+        }
         if(lastGametime != gametime) {
             explosionCountInCurrentGT = 1;
             explosionCountInCurrentPos = 0;
             previousPosition = pos;
             lastGametime = gametime;
             startTime = System.currentTimeMillis();
+            allocatedInCurrentPos = 0;
             LoggerRegistry.getLogger("explosions").log((option) -> {
                 return new ITextComponent[]{Messenger.m(null, "wb tick : ", "d " + gametime)};
             });
@@ -47,7 +75,8 @@ public class ExplosionLogHelper {
                             "d #" + explosionCountInCurrentGT,
                             "gb ->",
                             Messenger.dblt("l", pos.x, pos.y, pos.z),
-                            (affectBlocks)?"m (affects blocks)":"m  (doesn't affect blocks)"
+                            (affectBlocks)?"m (affects blocks)":"m  (doesn't affect blocks)",
+                            allocation(allocated)
                             )};
                     explosionCountInCurrentGT++;
                     break;
@@ -63,14 +92,17 @@ public class ExplosionLogHelper {
                                 "d " + explosionCountInCurrentPos + "x ",
                                 Messenger.dblt("l", previousPosition.x, previousPosition.y, previousPosition.z),
                                 (affectBlocks)?"m (affects blocks)":"m  (doesn't affect blocks)",
-                                "g (", "d " + (System.currentTimeMillis()-startTime), "g ms)"
+                                "g (", "d " + (System.currentTimeMillis()-startTime), "g ms)",
+                                allocation(allocated < 0 ? -1 : allocatedInCurrentPos)
                                 )};
                         explosionCountInCurrentGT += explosionCountInCurrentPos;
                         explosionCountInCurrentPos = 0;
                         previousPosition = pos;
                         startTime = System.currentTimeMillis();
+                        allocatedInCurrentPos = 0;
                     }
                     explosionCountInCurrentPos++;
+                    allocatedInCurrentPos += Math.max(0, allocated);
                     break;
             }
             return msg;
@@ -91,10 +123,12 @@ public class ExplosionLogHelper {
                                     "d " + explosionCountInCurrentPos + "x ",
                                     Messenger.dblt("l", previousPosition.x, previousPosition.y, previousPosition.z),
                                     (affectBlocks) ? "m (affects blocks)" : "m  (doesn't affect blocks)",
-                                    "g (", "d " + (System.currentTimeMillis()-startTime), "g ms)"
+                                    "g (", "d " + (System.currentTimeMillis()-startTime), "g ms)",
+                                    allocation(allocatedInCurrentPos)
                                     )};
                         }
                         startTime = 0;
+                        allocatedInCurrentPos = 0;
                     }
                     return msg;
                 });
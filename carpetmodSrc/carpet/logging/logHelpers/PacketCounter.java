@@ -4,5 +4,8 @@ public class PacketCounter
 {
     public static long totalOut=0;
     public static long totalIn=0;
-    public static void reset() {totalIn = 0l; totalOut = 0L; }
+    // totals from before the last reset, so long running measurements are not affected by resets
+    public static long resetOut=0;
+    public static long resetIn=0;
+    public static void reset() {resetIn += totalIn; resetOut += totalOut; totalIn = 0l; totalOut = 0L; }
 }
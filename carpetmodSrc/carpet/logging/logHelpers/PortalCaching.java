@@ -11,12 +11,16 @@ import java.util.List;
 
 public class PortalCaching {
 
-    public static void portalCachingCleared(World world, int cachedCount, ArrayList<Vec3d> uncacheCount) {
-        if(cachedCount == 0 && uncacheCount.size() == 0) return;
+    /**
+     * @param hits portal searches answered by the portal cache or the portal history since the last report
+     * @param misses portal searches that had to look for a portal since the last report
+     */
+    public static void portalCachingCleared(World world, int cachedCount, ArrayList<Vec3d> uncacheCount, int hits, int misses) {
+        if(cachedCount == 0 && uncacheCount.size() == 0 && hits == 0 && misses == 0) return;
         final int count = uncacheCount.size();
         List<ITextComponent> comp = new ArrayList<>();
         LoggerRegistry.getLogger("portalCaching").log( (option) -> {
-            comp.add(Messenger.s(null, String.format("%s Portals cached %d, Portal caches removed %d", world.provider.getDimensionType(), cachedCount, count)));
+            comp.add(Messenger.s(null, String.format("%s Portals cached %d, Portal caches removed %d, Cache hits %d, Cache misses %d", world.provider.getDimensionType(), cachedCount, count, hits, misses)));
             switch (option) {
                 case "brief":
                     return comp.toArray(new ITextComponent[0]);
@@ -21,6 +21,7 @@ import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.GameType;
 import net.minecraft.world.WorldServer;
 
+import java.util.List;
 import java.util.UUID;
 
 public class EntityPlayerMPFake extends EntityPlayerMP
@@ -36,10 +37,19 @@ public class EntityPlayerMPFake extends EntityPlayerMP
     private float setPitch;
 
     public static EntityPlayerMPFake createFake(String username, MinecraftServer server, double x, double y, double z, double yaw, double pitch, int dimension, int gamemode)
+    {
+        return createFake(username, server, x, y, z, yaw, pitch, dimension, gamemode, true);
+    }
+
+    /**
+     * @param lookupProfile false to skip the profile cache and skin lookup, which can block on a request to
+     *                      the session servers for names that were never seen before
+     */
+    public static EntityPlayerMPFake createFake(String username, MinecraftServer server, double x, double y, double z, double yaw, double pitch, int dimension, int gamemode, boolean lookupProfile)
     {
         WorldServer worldIn = server.getWorld(dimension);
         PlayerInteractionManager interactionManagerIn = new PlayerInteractionManager(worldIn);
-        GameProfile gameprofile = server.getPlayerProfileCache().getGameProfileForUsername(username);
+        GameProfile gameprofile = lookupProfile ? server.getPlayerProfileCache().getGameProfileForUsername(username) : null;
         if (gameprofile == null) {
             UUID uuid = EntityPlayer.getUUID(new GameProfile((UUID)null, username));
             gameprofile = new GameProfile(uuid, username);
@@ -230,6 +240,16 @@ public class EntityPlayerMPFake extends EntityPlayerMP
         scoreboard.removePlayerFromTeams(player.getName());
     }
 
+    public static boolean onlyFakePlayers(List<EntityPlayerMP> players)
+    {
+        for (int i = 0; i < players.size(); i++)
+        {
+            if (!(players.get(i) instanceof EntityPlayerMPFake))
+                return false;
+        }
+        return true;
+    }
+
     public static String getInfo(EntityPlayerMP p){
         return p.getName() + "/" + p.actionPack;
     }
@@ -15,6 +15,7 @@ public class NetHandlerPlayServerFake extends NetHandlerPlayServer
 
     public void sendPacket(final Packet<?> packetIn)
     {
+        this.netManager.sendPacket(packetIn);
     }
 
     public void disconnect(String reason)
@@ -1,10 +1,24 @@
 package carpet.patches;
 
+import carpet.CarpetSettings;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import net.minecraft.network.NetworkManager;
 import net.minecraft.network.EnumPacketDirection;
+import net.minecraft.network.Packet;
 
+/**
+ * Connection of a fake player. Nobody reads the packets, so they are dropped before they are
+ * queued or encoded, and only counted, by type if fakePlayerPacketStats is enabled.
+ */
 public class NetworkManagerFake extends NetworkManager
 {
+    /** Packets the server sent to fake players. Chunk data and block changes aren't built for them, so they aren't counted */
+    public static long totalOut = 0;
+    public static final Object2LongMap<Class<?>> outByType = new Object2LongOpenHashMap<>();
+
     public NetworkManagerFake(EnumPacketDirection p)
     {
         super(p);
@@ -16,4 +30,25 @@ public class NetworkManagerFake extends NetworkManager
     public void checkDisconnected()
     {
     }
+
+    @Override
+    public void sendPacket(Packet<?> packetIn)
+    {
+        drop(packetIn);
+    }
+
+    @Override
+    public void sendPacket(Packet<?> packetIn, GenericFutureListener<? extends Future<? super Void>> listener, GenericFutureListener<? extends Future<? super Void>>... listeners)
+    {
+        drop(packetIn);
+    }
+
+    private static void drop(Packet<?> packet)
+    {
+        totalOut++;
+        if (CarpetSettings.fakePlayerPacketStats)
+        {
+            outByType.put(packet.getClass(), outByType.getLong(packet.getClass()) + 1);
+        }
+    }
 }
@@ -4,6 +4,8 @@ import carpet.network.PacketSplitter;
 import carpet.network.PluginChannelHandler;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTBase;
@@ -19,6 +21,7 @@ public class PubSubMessenger implements PluginChannelHandler {
     // reserve id 0 for now
     public static final int PACKET_C2S_SUBSCRIBE = 1;
     public static final int PACKET_C2S_UNSUBSCRIBE = 2;
+    public static final int PACKET_C2S_SUBSCRIBE_WITH_OPTIONS = 3;
 
     public static final int PACKET_S2C_UPDATE = 1;
 
@@ -30,7 +33,7 @@ public class PubSubMessenger implements PluginChannelHandler {
     public static final int TYPE_DOUBLE = 5;
 
     private final PubSubManager pubSub;
-    private final Map<EntityPlayerMP, Map<PubSubNode, PubSubSubscriber>> subscriptions = new WeakHashMap<>();
+    private final Map<EntityPlayerMP, Client> clients = new WeakHashMap<>();
 
     public PubSubMessenger(PubSubManager pubSub) {
         this.pubSub = pubSub;
@@ -42,44 +45,182 @@ public class PubSubMessenger implements PluginChannelHandler {
     }
 
     public void subscribe(EntityPlayerMP player, Collection<String> nodes) {
-        Map<PubSubNode, PubSubSubscriber> playerSubscriptions = subscriptions.computeIfAbsent(player, p -> new HashMap<>());
+        subscribe(player, nodes, 0, 0);
+    }
+
+    /**
+     * Subscribe a player to nodes. Nodes below a node the player is already subscribed to keep being
+     * sent through that subscription, with the new options
+     * @param interval Minimum number of ticks between two updates of the same node
+     * @param threshold Numeric values are only sent once they changed by at least this much
+     */
+    public void subscribe(EntityPlayerMP player, Collection<String> nodes, int interval, double threshold) {
+        Client client = clients.computeIfAbsent(player, p -> new Client());
+        Map<PubSubNode, PubSubSubscriber> playerSubscriptions = client.subscriptions;
         Set<PubSubNode> addedNodes = new HashSet<>();
         for (String nodeName : nodes) {
             PubSubNode node = pubSub.getNode(nodeName);
             if (node == null) continue;
             addedNodes.add(node);
         }
+        Subscription subscriber = new Subscription(client, interval, threshold);
         Set<PubSubNode> deduplicatedNodes = new HashSet<>();
         for (PubSubNode node : addedNodes) {
-            boolean alreadyAdded = false;
+            PubSubNode coveredBy = null;
             for (PubSubNode n = node.parent; n != null; n = n.parent) {
-                if (playerSubscriptions.containsKey(n) || addedNodes.contains(n)) {
-                    alreadyAdded = true;
+                if (addedNodes.contains(n)) {
+                    coveredBy = n;
                     break;
                 }
+                if (coveredBy == null && playerSubscriptions.containsKey(n)) coveredBy = n;
+            }
+            if (coveredBy == null) {
+                deduplicatedNodes.add(node);
+            } else if (!addedNodes.contains(coveredBy)) {
+                // already sent through an earlier subscription to a parent, only the options change
+                client.options.keySet().removeIf(n -> isWithin(n, node));
+                client.options.put(node, subscriber);
             }
-            if (!alreadyAdded) deduplicatedNodes.add(node);
         }
         if (deduplicatedNodes.isEmpty()) return;
-        PubSubSubscriber subscriber = (node, value) -> {
-            PacketBuffer packet = makeUpdatePacket(Collections.singletonMap(node, value));
-            PacketSplitter.send(player, CHANNEL_NAME, packet);
-        };
+        // earlier subscriptions to these nodes, or to nodes they now cover, are replaced
+        Iterator<Map.Entry<PubSubNode, PubSubSubscriber>> it = playerSubscriptions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PubSubNode, PubSubSubscriber> entry = it.next();
+            for (PubSubNode node : deduplicatedNodes) {
+                if (isWithin(entry.getKey(), node)) {
+                    pubSub.unsubscribe(entry.getKey(), entry.getValue());
+                    it.remove();
+                    break;
+                }
+            }
+        }
         for (PubSubNode node : deduplicatedNodes) {
+            // the client expects the current values after subscribing, even if it was sent them before
+            client.forget(node);
+            client.options.keySet().removeIf(n -> isWithin(n, node));
             playerSubscriptions.put(node, subscriber);
             pubSub.subscribe(node, subscriber);
         }
     }
 
     private void unsubscribe(EntityPlayerMP player, Collection<String> nodes) {
-        Map<PubSubNode, PubSubSubscriber> playerSubscriptions = subscriptions.get(player);
-        if (playerSubscriptions == null) return;
+        Client client = clients.get(player);
+        if (client == null) return;
         for (String nodeName : nodes) {
             PubSubNode node = pubSub.getNode(nodeName);
             if (node == null) continue;
-            PubSubSubscriber subscriber = playerSubscriptions.get(node);
+            client.options.keySet().removeIf(n -> isWithin(n, node));
+            PubSubSubscriber subscriber = client.subscriptions.remove(node);
             if (subscriber == null) continue;
             pubSub.unsubscribe(node, subscriber);
+            client.forget(node);
+        }
+    }
+
+    /**
+     * Sends the updates published since the last call, at most one packet per player.
+     * Called once per tick after the providers have published.
+     * @param tickCounter Tick counter of the minecraft server
+     */
+    public void flush(int tickCounter) {
+        for (Map.Entry<EntityPlayerMP, Client> entry : clients.entrySet()) {
+            Map<PubSubNode, Object> updates = entry.getValue().collectUpdates(tickCounter);
+            if (updates.isEmpty()) continue;
+            PacketSplitter.send(entry.getKey(), CHANNEL_NAME, makeUpdatePacket(updates));
+        }
+    }
+
+    private static boolean isWithin(PubSubNode node, PubSubNode ancestor) {
+        for (PubSubNode n = node; n != null; n = n.parent) {
+            if (n == ancestor) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Subscriptions of a player and the values published to it that weren't sent yet.
+     * Publishes within a tick are coalesced, only the last value of each node is sent.
+     */
+    private static class Client {
+        final Map<PubSubNode, PubSubSubscriber> subscriptions = new HashMap<>();
+        // options asked for nodes below a subscribed node, which apply to everything below them
+        final Map<PubSubNode, Subscription> options = new HashMap<>();
+        final Map<PubSubNode, PendingUpdate> pending = new LinkedHashMap<>();
+        final Map<PubSubNode, Object> lastSent = new HashMap<>();
+        final Object2IntMap<PubSubNode> lastSentTick = new Object2IntOpenHashMap<>();
+
+        Subscription getOptions(PubSubNode node, Subscription subscription) {
+            if (options.isEmpty()) return subscription;
+            for (PubSubNode n = node; n != null; n = n.parent) {
+                Subscription nodeOptions = options.get(n);
+                if (nodeOptions != null) return nodeOptions;
+                if (subscriptions.get(n) == subscription) break;
+            }
+            return subscription;
+        }
+
+        void forget(PubSubNode node) {
+            pending.keySet().removeIf(n -> isWithin(n, node));
+            lastSent.keySet().removeIf(n -> isWithin(n, node));
+            lastSentTick.keySet().removeIf(n -> isWithin(n, node));
+        }
+
+        Map<PubSubNode, Object> collectUpdates(int tickCounter) {
+            if (pending.isEmpty()) return Collections.emptyMap();
+            Map<PubSubNode, Object> updates = new LinkedHashMap<>();
+            Iterator<Map.Entry<PubSubNode, PendingUpdate>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<PubSubNode, PendingUpdate> entry = it.next();
+                PubSubNode node = entry.getKey();
+                PendingUpdate update = entry.getValue();
+                if (lastSent.containsKey(node)) {
+                    Object last = lastSent.get(node);
+                    if (Objects.equals(last, update.value) || update.subscription.withinThreshold(last, update.value)) {
+                        it.remove();
+                        continue;
+                    }
+                    // too early, keep the latest value until the interval is over
+                    if (tickCounter - lastSentTick.getInt(node) < update.subscription.interval) continue;
+                }
+                updates.put(node, update.value);
+                lastSent.put(node, update.value);
+                lastSentTick.put(node, tickCounter);
+                it.remove();
+            }
+            return updates;
+        }
+    }
+
+    private static class Subscription implements PubSubSubscriber {
+        final Client client;
+        final int interval;
+        final double threshold;
+
+        Subscription(Client client, int interval, double threshold) {
+            this.client = client;
+            this.interval = interval;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void updateValue(PubSubNode node, Object value) {
+            client.pending.put(node, new PendingUpdate(client.getOptions(node, this), value));
+        }
+
+        boolean withinThreshold(Object last, Object value) {
+            if (threshold <= 0 || !(last instanceof Number) || !(value instanceof Number)) return false;
+            return Math.abs(((Number) value).doubleValue() - ((Number) last).doubleValue()) < threshold;
+        }
+    }
+
+    private static class PendingUpdate {
+        final Subscription subscription;
+        final Object value;
+
+        PendingUpdate(Subscription subscription, Object value) {
+            this.subscription = subscription;
+            this.value = value;
         }
     }
 
@@ -136,6 +277,20 @@ public class PubSubMessenger implements PluginChannelHandler {
         return compound;
     }
 
+    /*
+        Subscribe packet formats (framed by PacketSplitter):
+        id : varint = PACKET_C2S_SUBSCRIBE | PACKET_C2S_UNSUBSCRIBE
+        names
+
+        id : varint = PACKET_C2S_SUBSCRIBE_WITH_OPTIONS
+        interval : varint (minimum ticks between updates of a node, 0 for every tick)
+        threshold : double (minimum change of numeric values, 0 for any change)
+        names
+
+        names : varint size {
+            node : string
+        }[size]
+     */
     private static List<String> readNames(PacketBuffer buf) {
         int count = buf.readVarInt();
         List<String> names = new ArrayList<>(count);
@@ -155,6 +310,12 @@ public class PubSubMessenger implements PluginChannelHandler {
                 subscribe(player, readNames(payload));
                 return;
             }
+            case PACKET_C2S_SUBSCRIBE_WITH_OPTIONS: {
+                int interval = payload.readVarInt();
+                double threshold = payload.readDouble();
+                subscribe(player, readNames(payload), interval, threshold);
+                return;
+            }
             case PACKET_C2S_UNSUBSCRIBE: {
                 unsubscribe(player, readNames(payload));
                 return;
@@ -165,10 +326,10 @@ public class PubSubMessenger implements PluginChannelHandler {
 
     @Override
     public void unregister(String channel, EntityPlayerMP player) {
-        if (!subscriptions.containsKey(player)) return;
-        for (Map.Entry<PubSubNode, PubSubSubscriber> subscription : subscriptions.get(player).entrySet()) {
+        Client client = clients.remove(player);
+        if (client == null) return;
+        for (Map.Entry<PubSubNode, PubSubSubscriber> subscription : client.subscriptions.entrySet()) {
             subscription.getKey().unsubscribe(subscription.getValue());
         }
-        subscriptions.remove(player);
     }
 }
@@ -2,168 +2,470 @@ package carpet.utils;
 
 import carpet.CarpetSettings;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityList;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.tileentity.TileEntity;
-
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.World;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.List;
 
 public class CarpetProfiler
 {
-    private static final HashMap<String, Long> time_repo = new HashMap<String, Long>();
+    /**
+     * Profiled sections, the ordinal is the id used to index the accumulators.
+     * Sections below {@link #DIMENSION} are kept separately for every dimension.
+     */
+    public enum Section
+    {
+        TICK(null, "Tick"),
+        AUTOSAVE(TICK, "Autosave"),
+        NETWORK(TICK, "Network"),
+        DIMENSION(TICK, "Dimension"),
+        SPAWNING(DIMENSION, "Spawning"),
+        CHUNK_UNLOADING(DIMENSION, "Chunk unloading"),
+        TILE_TICKS(DIMENSION, "Tile ticks"),
+        RANDOM_TICKS(DIMENSION, "Random ticks"),
+        CHUNK_MAP(DIMENSION, "Chunk map"),
+        VILLAGES(DIMENSION, "Villages"),
+        BLOCK_EVENTS(DIMENSION, "Block events"),
+        ENTITIES(DIMENSION, "Entities"),
+        TILE_ENTITIES(DIMENSION, "Tile entities"),
+        ;
+
+        public final Section parent;
+        public final String name;
+
+        Section(Section parent, String name)
+        {
+            this.parent = parent;
+            this.name = name;
+        }
+    }
+
+    private static final Section[] SECTIONS = Section.values();
+    private static final int SECTION_COUNT = SECTIONS.length;
+    private static final DimensionType[] DIMENSIONS = DimensionType.values();
+    // slot 0 holds the server wide sections, the others one dimension each
+    private static final int SLOTS = DIMENSIONS.length + 1;
+    private static final int MAX_DEPTH = 16;
+
+    private static final long[] tick_time = new long[SLOTS * SECTION_COUNT];
+    private static final boolean[] tick_visited = new boolean[SLOTS * SECTION_COUNT];
+    // kept apart, so a tick report neither starts from nor wipes what continuous mode collected
+    private static final Totals report_totals = new Totals();
+    private static final Totals continuous_totals = new Totals();
+
+    private static final int[] stack_index = new int[MAX_DEPTH];
+    private static final long[] stack_start = new long[MAX_DEPTH];
+    private static int depth = 0;
+    private static int overflow = 0;
+
+    // entity and tile entity costs, indexed by type * SLOTS + slot
+    private static final int NO_TYPE = -1;
+    private static final int TOP_TYPES = 10;
+    private static final Reference2IntOpenHashMap<Class<?>> type_ids = new Reference2IntOpenHashMap<>();
+    private static String[] type_names = new String[64];
+    private static int type_count = 0;
+    private static long[] type_time = new long[64 * SLOTS];
+    private static long[] type_instances = new long[64 * SLOTS];
+
+    // optional per chunk attribution, rows keyed by slot, chunk and type packed in a long
+    private static boolean track_chunks = false;
+    private static final Long2IntOpenHashMap chunk_rows = new Long2IntOpenHashMap();
+    private static long[] chunk_keys = new long[256];
+    private static long[] chunk_time = new long[256];
+    private static int chunk_row_count = 0;
+
+    static
+    {
+        type_ids.defaultReturnValue(NO_TYPE);
+        chunk_rows.defaultReturnValue(-1);
+    }
+
+    private static int current_entity_type = NO_TYPE;
+    private static int current_entity_column = 0;
+    private static int current_entity_slot = 0;
+    private static int current_entity_chunk_x = 0;
+    private static int current_entity_chunk_z = 0;
+    private static long current_entity_section_start = 0;
+    private static long entity_tick_time = 0;
+
+    private static int heatmap_top = 0;
+    private static int current_block_column = -1;
+    private static int current_block_slot = 0;
+    private static int current_block_chunk_x = 0;
+    private static int current_block_chunk_z = 0;
+    private static long current_block_section_start = 0;
+
+    public static boolean active = false;
     public static int tick_health_requested = 0;
     private static int tick_health_elapsed = 0;
-    private static int test_type = 0; //1 for ticks, 2 for entities;
-    private static String current_section = null;
-    private static long current_section_start = 0;
+    private static int test_type = 0; //1 for ticks, 2 for entities, 3 for chunks;
+    private static boolean continuous = false;
+    private static boolean history = false;
     private static long current_tick_start = 0;
 
+    /**
+     * Section times summed over the recorded ticks, with a percentile histogram for every section.
+     */
+    private static class Totals
+    {
+        final long[] time = new long[SLOTS * SECTION_COUNT];
+        final TickHistogram histograms = new TickHistogram(SLOTS * SECTION_COUNT);
+        int ticks = 0;
+
+        void record(int index, long elapsed)
+        {
+            time[index] += elapsed;
+            histograms.record(index, elapsed / 1000L);
+        }
+
+        void clear()
+        {
+            Arrays.fill(time, 0L);
+            histograms.clear();
+            ticks = 0;
+        }
+    }
+
     public static void prepare_tick_report(int ticks)
     {
         //maybe add so it only spams the sending player, but honestly - all may want to see it
-        time_repo.clear();
+        if (!sections_active())
+        {
+            reset_sections();
+        }
+        report_totals.clear();
         test_type = 1;
-        time_repo.put("tick",0L);
-        time_repo.put("Network",0L);
-        time_repo.put("Autosave",0L);
-
-        time_repo.put("overworld.spawning",0L);
-        time_repo.put("overworld.blocks",0L);
-        time_repo.put("overworld.entities",0L);
-        time_repo.put("overworld.tileentities",0L);
-
-        time_repo.put("the_nether.spawning",0L);
-        time_repo.put("the_nether.blocks",0L);
-        time_repo.put("the_nether.entities",0L);
-        time_repo.put("the_nether.tileentities",0L);
-
-        time_repo.put("the_end.spawning",0L);
-        time_repo.put("the_end.blocks",0L);
-        time_repo.put("the_end.entities",0L);
-        time_repo.put("the_end.tileentities",0L);
-        //spawning
-        //blocks
-        //entities
-        //tileentities
+        tick_health_elapsed = ticks;
+        tick_health_requested = ticks;
+        update_active();
+    }
+
+    public static void prepare_entity_report(int ticks)
+    {
+        prepare_entity_report(ticks, false);
+    }
 
+    /**
+     * Attributes tick time to entity and tile entity classes, and optionally to the chunks they are in.
+     */
+    public static void prepare_entity_report(int ticks, boolean chunks)
+    {
+        reset_entities();
+        track_chunks = chunks;
+        test_type = 2;
         tick_health_elapsed = ticks;
         tick_health_requested = ticks;
-        current_tick_start = 0L;
-        current_section_start = 0L;
-        current_section = null;
+        update_active();
+    }
+
+    /**
+     * Collects the cost of entities, tile entities, tile ticks, random ticks and block events per chunk.
+     */
+    public static void prepare_chunk_report(int ticks, int top)
+    {
+        reset_entities();
+        ChunkHeatmap.clear();
+        heatmap_top = top;
+        current_block_column = -1;
+        test_type = 3;
+        tick_health_elapsed = ticks;
+        tick_health_requested = ticks;
+        update_active();
+    }
 
+    private static void reset_entities()
+    {
+        Arrays.fill(type_time, 0L);
+        Arrays.fill(type_instances, 0L);
+        chunk_rows.clear();
+        chunk_row_count = 0;
+        entity_tick_time = 0L;
+        current_entity_type = NO_TYPE;
+        current_entity_section_start = 0L;
     }
 
-    public static void start_section(String dimension, String name)
+    /**
+     * Keeps timing sections and filling the percentile histograms between reports,
+     * so they can be printed at any point with {@link #print_continuous_report}.
+     */
+    public static void set_continuous(boolean enabled)
     {
-        if (tick_health_requested == 0L || test_type != 1)
+        if (enabled && !continuous)
         {
-            return;
+            if (!sections_active())
+            {
+                reset_sections();
+            }
+            continuous_totals.clear();
         }
-        if (current_tick_start == 0L)
+        continuous = enabled;
+        update_active();
+    }
+
+    public static boolean is_continuous()
+    {
+        return continuous;
+    }
+
+    public static void print_continuous_report(MinecraftServer server)
+    {
+        finalize_tick_report_for_time(server, continuous_totals);
+    }
+
+    /**
+     * Called by {@link TickHistory} to keep sections timed while the history is enabled.
+     */
+    static void set_history(boolean enabled)
+    {
+        history = enabled;
+        update_active();
+    }
+
+    public static int column_count()
+    {
+        return SLOTS * SECTION_COUNT;
+    }
+
+    public static String column_name(int index)
+    {
+        Section section = SECTIONS[index % SECTION_COUNT];
+        int slot = index / SECTION_COUNT;
+        if (slot == 0)
         {
-            return;
+            return section.name;
         }
-        if (current_section != null)
+        String dimension = DIMENSIONS[slot - 1].getName();
+        return section == Section.DIMENSION ? dimension : dimension + "." + section.name;
+    }
+
+    public static boolean column_has_children(int index)
+    {
+        Section section = SECTIONS[index % SECTION_COUNT];
+        return section == Section.TICK || section == Section.DIMENSION;
+    }
+
+    private static boolean sections_active()
+    {
+        return test_type == 1 || continuous || history;
+    }
+
+    private static void update_active()
+    {
+        active = test_type != 0 || continuous || history;
+        if (!active)
         {
-            end_current_section();
+            current_tick_start = 0L;
         }
-        String key = name;
-        if (dimension != null)
+    }
+
+    /**
+     * Starts timing sections with the next tick, as the running tick could end
+     * sections that were started before they were timed.
+     */
+    private static void reset_sections()
+    {
+        Arrays.fill(tick_time, 0L);
+        Arrays.fill(tick_visited, false);
+        depth = 0;
+        overflow = 0;
+        current_tick_start = 0L;
+    }
+
+    private static int slot(World world)
+    {
+        return world == null ? 0 : world.provider.getDimensionType().ordinal() + 1;
+    }
+
+    public static void start_section(World world, Section section)
+    {
+        if (!active || current_tick_start == 0L || !sections_active())
+        {
+            return;
+        }
+        if (depth == MAX_DEPTH)
         {
-            key = dimension+"."+name;
+            overflow++;
+            return;
         }
-        current_section = key;
-        current_section_start = System.nanoTime();
+        stack_index[depth] = slot(world) * SECTION_COUNT + section.ordinal();
+        stack_start[depth] = System.nanoTime();
+        depth++;
     }
 
-    public static void start_entity_section(String dimension, Entity e)
+    public static void end_current_section()
     {
-        if (tick_health_requested == 0L || test_type != 2)
+        if (!active || current_tick_start == 0L || !sections_active())
         {
             return;
         }
-        if (current_tick_start == 0L)
+        if (overflow > 0)
         {
+            overflow--;
             return;
         }
-        if (current_section != null)
+        if (depth == 0)
         {
-            end_current_section();
+            CarpetSettings.LOG.error("finishing section that hasn't started");
+            return;
         }
-        current_section = dimension+"."+e.cm_name();
-        current_section_start = System.nanoTime();
+        depth--;
+        close_section(stack_index[depth], System.nanoTime() - stack_start[depth]);
     }
 
-    public static void start_tileentity_section(String dimension, TileEntity e)
+    private static void close_section(int index, long elapsed)
     {
-        if (tick_health_requested == 0L || test_type != 2)
+        tick_time[index] += elapsed;
+        tick_visited[index] = true;
+    }
+
+    public static void start_entity_section(World world, Entity e)
+    {
+        if (!active || test_type < 2 || current_tick_start == 0L)
         {
             return;
         }
-        if (current_tick_start == 0L)
+        int type = type_ids.getInt(e.getClass());
+        if (type == NO_TYPE)
+        {
+            ResourceLocation key = EntityList.getKey(e);
+            type = register_type(e.getClass(), key == null ? e.getClass().getSimpleName() : key.toString());
+        }
+        current_entity_type = type;
+        current_entity_column = ChunkHeatmap.column(Section.ENTITIES);
+        current_entity_slot = slot(world);
+        current_entity_chunk_x = MathHelper.floor(e.posX) >> 4;
+        current_entity_chunk_z = MathHelper.floor(e.posZ) >> 4;
+        current_entity_section_start = System.nanoTime();
+    }
+
+    public static void start_tileentity_section(World world, TileEntity e)
+    {
+        if (!active || test_type < 2 || current_tick_start == 0L)
         {
             return;
         }
-        if (current_section != null)
+        int type = type_ids.getInt(e.getClass());
+        if (type == NO_TYPE)
         {
-            end_current_section();
+            ResourceLocation key = TileEntity.getKey(e.getClass());
+            type = register_type(e.getClass(), key == null ? e.getClass().getSimpleName() : key.toString());
         }
-        current_section = dimension+"."+e.cm_name();
-        current_section_start = System.nanoTime();
+        current_entity_type = type;
+        current_entity_column = ChunkHeatmap.column(Section.TILE_ENTITIES);
+        current_entity_slot = slot(world);
+        current_entity_chunk_x = e.getPos().getX() >> 4;
+        current_entity_chunk_z = e.getPos().getZ() >> 4;
+        current_entity_section_start = System.nanoTime();
     }
 
-    public static void end_current_section()
+    public static void end_current_entity_section()
     {
-        if (tick_health_requested == 0L || test_type != 1)
+        if (!active || test_type < 2 || current_tick_start == 0L)
         {
             return;
         }
-        long end_time = System.nanoTime();
-        if (current_tick_start == 0L)
+        long elapsed = System.nanoTime() - current_entity_section_start;
+        if (current_entity_type == NO_TYPE)
         {
+            CarpetSettings.LOG.error("finishing section that hasn't started");
             return;
         }
-        if (current_section == null)
+        if (test_type == 3)
         {
-            CarpetSettings.LOG.error("finishing section that hasn't started");
+            ChunkHeatmap.add(current_entity_slot, current_entity_chunk_x, current_entity_chunk_z, current_entity_column, elapsed);
+            current_entity_type = NO_TYPE;
             return;
         }
-        //CarpetSettings.LOG.error("finishing section "+current_section);
-        time_repo.put(current_section,time_repo.get(current_section)+end_time-current_section_start);
-        current_section = null;
-        current_section_start = 0;
+        int index = current_entity_type * SLOTS + current_entity_slot;
+        type_time[index] += elapsed;
+        type_instances[index]++;
+        if (track_chunks)
+        {
+            add_chunk_time(elapsed);
+        }
+        current_entity_type = NO_TYPE;
     }
 
-    public static void end_current_entity_section()
+    /**
+     * Times a single tile tick, random tick or block event for the chunk report.
+     */
+    public static void start_block_section(World world, BlockPos pos, Section section)
     {
-        if (tick_health_requested == 0L || test_type != 2)
+        if (!active || test_type != 3 || current_tick_start == 0L)
         {
             return;
         }
-        long end_time = System.nanoTime();
-        if (current_tick_start == 0L)
+        current_block_column = ChunkHeatmap.column(section);
+        current_block_slot = slot(world);
+        current_block_chunk_x = pos.getX() >> 4;
+        current_block_chunk_z = pos.getZ() >> 4;
+        current_block_section_start = System.nanoTime();
+    }
+
+    public static void end_current_block_section()
+    {
+        if (!active || test_type != 3 || current_block_column == -1)
         {
             return;
         }
-        if (current_section == null)
+        ChunkHeatmap.add(current_block_slot, current_block_chunk_x, current_block_chunk_z, current_block_column, System.nanoTime() - current_block_section_start);
+        current_block_column = -1;
+    }
+
+    private static int register_type(Class<?> clazz, String name)
+    {
+        int type = type_count++;
+        if (type == type_names.length)
         {
-            CarpetSettings.LOG.error("finishing section that hasn't started");
-            return;
+            type_names = Arrays.copyOf(type_names, type * 2);
+            type_time = Arrays.copyOf(type_time, type * 2 * SLOTS);
+            type_instances = Arrays.copyOf(type_instances, type * 2 * SLOTS);
         }
-        //CarpetSettings.LOG.error("finishing section "+current_section);
-        String time_section = "t."+current_section;
-        String count_section = "c."+current_section;
-        time_repo.put(time_section,time_repo.getOrDefault(time_section,0L)+end_time-current_section_start);
-        time_repo.put(count_section,time_repo.getOrDefault(count_section,0L)+1);
-        current_section = null;
-        current_section_start = 0;
+        type_names[type] = name;
+        type_ids.put(clazz, type);
+        return type;
+    }
+
+    // 22 bits per chunk coordinate covers the whole world border, leaving 20 bits for the type and slot
+    private static long chunk_key(int slot, int chunk_x, int chunk_z, int type)
+    {
+        return ((long) slot << 58) | ((long) (type & 0x3FFF) << 44) | ((long) (chunk_z & 0x3FFFFF) << 22) | (chunk_x & 0x3FFFFF);
+    }
+
+    private static void add_chunk_time(long elapsed)
+    {
+        long key = chunk_key(current_entity_slot, current_entity_chunk_x, current_entity_chunk_z, current_entity_type);
+        int row = chunk_rows.get(key);
+        if (row == -1)
+        {
+            row = chunk_row_count++;
+            if (row == chunk_keys.length)
+            {
+                chunk_keys = Arrays.copyOf(chunk_keys, row * 2);
+                chunk_time = Arrays.copyOf(chunk_time, row * 2);
+            }
+            chunk_keys[row] = key;
+            chunk_time[row] = 0L;
+            chunk_rows.put(key, row);
+        }
+        chunk_time[row] += elapsed;
     }
 
     public static void start_tick_profiling()
     {
+        depth = 0;
+        overflow = 0;
         current_tick_start = System.nanoTime();
     }
 
@@ -173,12 +475,68 @@ public class CarpetProfiler
         {
             return;
         }
-        time_repo.put("tick",time_repo.get("tick")+System.nanoTime()-current_tick_start);
-        tick_health_elapsed --;
-        //CarpetSettings.LOG.error("tick count current at "+time_repo.get("tick"));
-        if (tick_health_elapsed <= 0)
+        long end_time = System.nanoTime();
+        // sections left open by a suppressed crash are closed with the tick
+        while (depth > 0)
+        {
+            depth--;
+            close_section(stack_index[depth], end_time - stack_start[depth]);
+        }
+        overflow = 0;
+        close_section(Section.TICK.ordinal(), end_time - current_tick_start);
+        if (test_type == 2)
+        {
+            entity_tick_time += end_time - current_tick_start;
+        }
+        else if (test_type == 3)
+        {
+            ChunkHeatmap.tick();
+        }
+        if (sections_active())
+        {
+            record_tick(server.getTickCounter());
+        }
+        else
+        {
+            Arrays.fill(tick_time, 0L);
+            Arrays.fill(tick_visited, false);
+        }
+        if (test_type != 0)
         {
-            finalize_tick_report(server);
+            tick_health_elapsed--;
+            if (tick_health_elapsed <= 0)
+            {
+                finalize_tick_report(server);
+            }
+        }
+    }
+
+    private static void record_tick(int tick)
+    {
+        TickHistory.record(tick, tick_time);
+        for (int i = 0; i < tick_time.length; i++)
+        {
+            if (tick_visited[i])
+            {
+                if (test_type == 1)
+                {
+                    report_totals.record(i, tick_time[i]);
+                }
+                if (continuous)
+                {
+                    continuous_totals.record(i, tick_time[i]);
+                }
+                tick_time[i] = 0L;
+                tick_visited[i] = false;
+            }
+        }
+        if (test_type == 1)
+        {
+            report_totals.ticks++;
+        }
+        if (continuous)
+        {
+            continuous_totals.ticks++;
         }
     }
 
@@ -186,146 +544,172 @@ public class CarpetProfiler
     {
         if (test_type == 1)
         {
-            finalize_tick_report_for_time(server);
+            finalize_tick_report_for_time(server, report_totals);
         }
         if (test_type == 2)
         {
             finalize_tick_report_for_entities(server);
         }
+        if (test_type == 3)
+        {
+            ChunkHeatmap.report(server, heatmap_top);
+        }
         cleanup_tick_report();
     }
 
     public static void cleanup_tick_report()
     {
-        time_repo.clear();
-        time_repo.put("tick",0L);
+        if (test_type == 1)
+        {
+            report_totals.clear();
+        }
+        if (test_type == 2)
+        {
+            reset_entities();
+        }
+        current_block_column = -1;
         test_type = 0;
         tick_health_elapsed = 0;
         tick_health_requested = 0;
-        current_tick_start = 0L;
-        current_section_start = 0L;
-        current_section = null;
+        update_active();
+    }
 
+    private static String format_section(Totals totals, String prefix, int index)
+    {
+        double divider = 1.0D/totals.ticks/1000000;
+        TickHistogram histograms = totals.histograms;
+        return String.format("%s: %.3fms (p50 %.3f, p95 %.3f, p99 %.3fms)", prefix, divider*totals.time[index],
+                histograms.percentile(index, 0.50D)/1000, histograms.percentile(index, 0.95D)/1000, histograms.percentile(index, 0.99D)/1000);
     }
 
-    public static void finalize_tick_report_for_time(MinecraftServer server)
+    private static void finalize_tick_report_for_time(MinecraftServer server, Totals totals)
     {
         //print stats
-        long total_tick_time = time_repo.get("tick");
-        double divider = 1.0D/tick_health_requested/1000000;
-        Messenger.print_server_message(server, String.format("Average tick time: %.3fms",divider*total_tick_time));
+        if (totals.ticks == 0)
+        {
+            Messenger.print_server_message(server, "No ticks have been profiled yet");
+            return;
+        }
+        int tick = Section.TICK.ordinal();
+        Messenger.print_server_message(server, format_section(totals, "Average tick time", tick));
         long accumulated = 0L;
 
-        accumulated += time_repo.get("Autosave");
-        Messenger.print_server_message(server, String.format("Autosave: %.3fms",divider*time_repo.get("Autosave")));
-
-        accumulated += time_repo.get("Network");
-        Messenger.print_server_message(server, String.format("Network: %.3fms",divider*time_repo.get("Network")));
-
-        Messenger.print_server_message(server, "Overworld:");
-
-        accumulated += time_repo.get("overworld.entities");
-        Messenger.print_server_message(server, String.format(" - Entities: %.3fms",divider*time_repo.get("overworld.entities")));
-
-        accumulated += time_repo.get("overworld.tileentities");
-        Messenger.print_server_message(server, String.format(" - Tile Entities: %.3fms",divider*time_repo.get("overworld.tileentities")));
-
-        accumulated += time_repo.get("overworld.blocks");
-        Messenger.print_server_message(server, String.format(" - Blocks: %.3fms",divider*time_repo.get("overworld.blocks")));
-
-        accumulated += time_repo.get("overworld.spawning");
-        Messenger.print_server_message(server, String.format(" - Spawning: %.3fms",divider*time_repo.get("overworld.spawning")));
-
-        Messenger.print_server_message(server, "Nether:");
-
-        accumulated += time_repo.get("the_nether.entities");
-        Messenger.print_server_message(server, String.format(" - Entities: %.3fms",divider*time_repo.get("the_nether.entities")));
-
-        accumulated += time_repo.get("the_nether.tileentities");
-        Messenger.print_server_message(server, String.format(" - Tile Entities: %.3fms",divider*time_repo.get("the_nether.tileentities")));
-
-        accumulated += time_repo.get("the_nether.blocks");
-        Messenger.print_server_message(server, String.format(" - Blocks: %.3fms",divider*time_repo.get("the_nether.blocks")));
-
-        accumulated += time_repo.get("the_nether.spawning");
-        Messenger.print_server_message(server, String.format(" - Spawning: %.3fms",divider*time_repo.get("the_nether.spawning")));
-
-        Messenger.print_server_message(server, "End:");
-
-        accumulated += time_repo.get("the_end.entities");
-        Messenger.print_server_message(server, String.format(" - Entities: %.3fms",divider*time_repo.get("the_end.entities")));
-
-        accumulated += time_repo.get("the_end.tileentities");
-        Messenger.print_server_message(server, String.format(" - Tile Entities: %.3fms",divider*time_repo.get("the_end.tileentities")));
-
-        accumulated += time_repo.get("the_end.blocks");
-        Messenger.print_server_message(server, String.format(" - Blocks: %.3fms",divider*time_repo.get("the_end.blocks")));
-
-        accumulated += time_repo.get("the_end.spawning");
-        Messenger.print_server_message(server, String.format(" - Spawning: %.3fms",divider*time_repo.get("the_end.spawning")));
+        for (Section section : SECTIONS)
+        {
+            if (section.parent != Section.TICK)
+            {
+                continue;
+            }
+            if (section != Section.DIMENSION)
+            {
+                accumulated += totals.time[section.ordinal()];
+                Messenger.print_server_message(server, format_section(totals, section.name, section.ordinal()));
+                continue;
+            }
+            for (int slot = 1; slot < SLOTS; slot++)
+            {
+                int dimension = slot * SECTION_COUNT + section.ordinal();
+                if (totals.histograms.count(dimension) == 0)
+                {
+                    continue;
+                }
+                accumulated += totals.time[dimension];
+                Messenger.print_server_message(server, format_section(totals, DIMENSIONS[slot - 1].getName(), dimension));
+                for (Section child : SECTIONS)
+                {
+                    if (child.parent == Section.DIMENSION)
+                    {
+                        int index = slot * SECTION_COUNT + child.ordinal();
+                        Messenger.print_server_message(server, format_section(totals, " - " + child.name, index));
+                    }
+                }
+            }
+        }
 
-        long rest = total_tick_time-accumulated;
+        long rest = totals.time[tick]-accumulated;
 
-        Messenger.print_server_message(server, String.format("Rest: %.3fms",divider*rest));
+        Messenger.print_server_message(server, String.format("Rest: %.3fms",1.0D/totals.ticks/1000000*rest));
     }
 
     public static void finalize_tick_report_for_entities(MinecraftServer server)
     {
         //print stats
-        long total_tick_time = time_repo.get("tick");
         double divider = 1.0D/tick_health_requested/1000000;
-        Messenger.print_server_message(server, String.format("Average tick time: %.3fms",divider*total_tick_time));
-        time_repo.remove("tick");
-        Messenger.print_server_message(server, "Top 10 counts:");
-        int total = 0;
-        for ( Map.Entry<String, Long> entry : time_repo.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())).collect(Collectors.toList()) )
+        Messenger.print_server_message(server, String.format("Average tick time: %.3fms",divider*entity_tick_time));
+        for (int slot = 1; slot < SLOTS; slot++)
         {
-            if (entry.getKey().startsWith("t."))
+            final int dimension = slot;
+            List<Integer> types = new ArrayList<>();
+            for (int type = 0; type < type_count; type++)
             {
-                continue;
+                if (type_instances[type * SLOTS + slot] > 0)
+                {
+                    types.add(type);
+                }
             }
-            total++;
-            if (total > 10)
+            if (types.isEmpty())
             {
                 continue;
             }
-            String[] parts = entry.getKey().split("\\.");
-            String dim = parts[1];
-            String name = parts[2];
-            Messenger.print_server_message(server, String.format(" - %s in %s: %.3f",name, dim, 1.0D*entry.getValue()/tick_health_requested));
+            types.sort(Comparator.comparingLong(type -> -type_time[type * SLOTS + dimension]));
+            Messenger.print_server_message(server, String.format("Top %d in %s:", Math.min(TOP_TYPES, types.size()), DIMENSIONS[slot - 1].getName()));
+            for (int type : types.subList(0, Math.min(TOP_TYPES, types.size())))
+            {
+                int index = type * SLOTS + slot;
+                Messenger.print_server_message(server, String.format(" - %s: %.1f, %.3fms, %.1fus each",
+                        type_names[type], 1.0D*type_instances[index]/tick_health_requested, divider*type_time[index],
+                        type_time[index]/1000.0D/type_instances[index]));
+            }
         }
-        Messenger.print_server_message(server, "Top 10 grossing:");
-        total = 0;
-        for ( Map.Entry<String, Long> entry : time_repo.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())).collect(Collectors.toList()) )
+        if (track_chunks)
         {
-            if (entry.getKey().startsWith("c."))
+            finalize_chunk_report(server, divider);
+        }
+    }
+
+    private static void finalize_chunk_report(MinecraftServer server, double divider)
+    {
+        // fold the per type rows into chunks, remembering the most expensive type in each
+        long type_mask = 0x3FFFL << 44;
+        Long2IntOpenHashMap chunks = new Long2IntOpenHashMap();
+        chunks.defaultReturnValue(-1);
+        long[] totals = new long[chunk_row_count];
+        int[] worst_row = new int[chunk_row_count];
+        long[] keys = new long[chunk_row_count];
+        int chunk_count = 0;
+        for (int row = 0; row < chunk_row_count; row++)
+        {
+            long key = chunk_keys[row] & ~type_mask;
+            int chunk = chunks.get(key);
+            if (chunk == -1)
             {
-                continue;
+                chunk = chunk_count++;
+                chunks.put(key, chunk);
+                keys[chunk] = key;
+                worst_row[chunk] = row;
             }
-            total++;
-            if (total > 10)
+            totals[chunk] += chunk_time[row];
+            if (chunk_time[row] > chunk_time[worst_row[chunk]])
             {
-                continue;
+                worst_row[chunk] = row;
             }
-            String[] parts = entry.getKey().split("\\.");
-            String dim = parts[1];
-            String name = parts[2];
-            Messenger.print_server_message(server, String.format(" - %s in %s: %.3fms",name, dim, divider*entry.getValue()));
         }
-
-    }
-
-    public static void prepare_entity_report(int ticks)
-    {
-        //maybe add so it only spams the sending player, but honestly - all may want to see it
-        time_repo.clear();
-        time_repo.put("tick",0L);
-        test_type = 2;
-        tick_health_elapsed = ticks;
-        tick_health_requested = ticks;
-        current_tick_start = 0L;
-        current_section_start = 0L;
-        current_section = null;
-
+        List<Integer> order = new ArrayList<>();
+        for (int chunk = 0; chunk < chunk_count; chunk++)
+        {
+            order.add(chunk);
+        }
+        order.sort(Comparator.comparingLong(chunk -> -totals[chunk]));
+        Messenger.print_server_message(server, String.format("Top %d chunks:", Math.min(TOP_TYPES, order.size())));
+        for (int chunk : order.subList(0, Math.min(TOP_TYPES, order.size())))
+        {
+            long key = keys[chunk];
+            int slot = (int) (key >>> 58);
+            int chunk_x = ((int) (key << 10)) >> 10;
+            int chunk_z = ((int) ((key >>> 22) << 10)) >> 10;
+            int type = (int) ((chunk_keys[worst_row[chunk]] >>> 44) & 0x3FFF);
+            Messenger.print_server_message(server, String.format(" - %s [%d, %d]: %.3fms, mostly %s",
+                    DIMENSIONS[slot - 1].getName(), chunk_x, chunk_z, divider*totals[chunk], type_names[type]));
+        }
     }
 }
@@ -0,0 +1,263 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tick cost per chunk, collected by {@link CarpetProfiler} while a chunk report is running.
+ * Every chunk gets a row of primitive counters, one column per kind of work done in it.
+ */
+public class ChunkHeatmap
+{
+    public static final CarpetProfiler.Section[] COLUMNS = {
+            CarpetProfiler.Section.ENTITIES,
+            CarpetProfiler.Section.TILE_ENTITIES,
+            CarpetProfiler.Section.TILE_TICKS,
+            CarpetProfiler.Section.RANDOM_TICKS,
+            CarpetProfiler.Section.BLOCK_EVENTS,
+    };
+    private static final String[] SHORT_NAMES = {"E", "TE", "TT", "RT", "BE"};
+    private static final int MAX_EXPORT_CELLS = 1 << 20;
+
+    private static final Long2IntOpenHashMap rows = new Long2IntOpenHashMap();
+    private static long[] keys = new long[1024];
+    private static long[] time = new long[1024 * COLUMNS.length];
+    private static int row_count = 0;
+    private static int ticks = 0;
+
+    static
+    {
+        rows.defaultReturnValue(-1);
+    }
+
+    static int column(CarpetProfiler.Section section)
+    {
+        switch (section)
+        {
+            case ENTITIES: return 0;
+            case TILE_ENTITIES: return 1;
+            case TILE_TICKS: return 2;
+            case RANDOM_TICKS: return 3;
+            case BLOCK_EVENTS: return 4;
+            default: return -1;
+        }
+    }
+
+    static void clear()
+    {
+        rows.clear();
+        row_count = 0;
+        ticks = 0;
+    }
+
+    static void tick()
+    {
+        ticks++;
+    }
+
+    private static long key(int slot, int chunk_x, int chunk_z)
+    {
+        return ((long) slot << 58) | ((long) (chunk_z & 0x3FFFFF) << 22) | (chunk_x & 0x3FFFFF);
+    }
+
+    private static int slot(long key)
+    {
+        return (int) (key >>> 58);
+    }
+
+    private static int chunk_x(long key)
+    {
+        return ((int) (key << 10)) >> 10;
+    }
+
+    private static int chunk_z(long key)
+    {
+        return ((int) ((key >>> 22) << 10)) >> 10;
+    }
+
+    static void add(int slot, int chunk_x, int chunk_z, int column, long elapsed)
+    {
+        long key = key(slot, chunk_x, chunk_z);
+        int row = rows.get(key);
+        if (row == -1)
+        {
+            row = row_count++;
+            if (row == keys.length)
+            {
+                keys = Arrays.copyOf(keys, row * 2);
+                time = Arrays.copyOf(time, row * 2 * COLUMNS.length);
+            }
+            keys[row] = key;
+            Arrays.fill(time, row * COLUMNS.length, (row + 1) * COLUMNS.length, 0L);
+            rows.put(key, row);
+        }
+        time[row * COLUMNS.length + column] += elapsed;
+    }
+
+    private static long total(int row)
+    {
+        long total = 0;
+        for (int c = 0; c < COLUMNS.length; c++)
+        {
+            total += time[row * COLUMNS.length + c];
+        }
+        return total;
+    }
+
+    public static void report(MinecraftServer server, int top)
+    {
+        if (row_count == 0)
+        {
+            Messenger.print_server_message(server, "No chunk activity was recorded");
+            return;
+        }
+        // rows can be added before the first tick of the report ends
+        double divider = 1.0D/Math.max(1, ticks)/1000000;
+        List<Integer> order = new ArrayList<>();
+        long[] totals = new long[row_count];
+        for (int row = 0; row < row_count; row++)
+        {
+            order.add(row);
+            totals[row] = total(row);
+        }
+        order.sort(Comparator.comparingLong(row -> -totals[row]));
+        Messenger.print_server_message(server, String.format("Top %d chunks over %d ticks (%d chunks active):", Math.min(top, row_count), ticks, row_count));
+        for (int row : order.subList(0, Math.min(top, row_count)))
+        {
+            long key = keys[row];
+            StringBuilder breakdown = new StringBuilder();
+            for (int c = 0; c < COLUMNS.length; c++)
+            {
+                long value = time[row * COLUMNS.length + c];
+                if (value > 0)
+                {
+                    breakdown.append(breakdown.length() == 0 ? "" : ", ").append(String.format("%s %.3f", SHORT_NAMES[c], divider*value));
+                }
+            }
+            Messenger.print_server_message(server, String.format(" - %s [%d, %d]: %.3fms (%s)",
+                    DimensionType.values()[slot(key) - 1].getName(), chunk_x(key), chunk_z(key), divider*totals[row], breakdown));
+        }
+        Messenger.print_server_message(server, "E: entities, TE: tile entities, TT: tile ticks, RT: random ticks, BE: block events");
+    }
+
+    /**
+     * Writes one matrix per dimension, rows are chunk z and columns chunk x, with the average
+     * microseconds per tick spent in that chunk. Loaded chunks without any recorded cost are 0,
+     * unloaded chunks are left empty, so the file can be fed directly into a heatmap or image.
+     */
+    public static List<File> export(MinecraftServer server)
+    {
+        List<File> files = new ArrayList<>();
+        if (row_count == 0)
+        {
+            return files;
+        }
+        String date = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date());
+        for (WorldServer world : server.worlds)
+        {
+            int slot = world.provider.getDimensionType().ordinal() + 1;
+            int min_x = Integer.MAX_VALUE, min_z = Integer.MAX_VALUE, max_x = Integer.MIN_VALUE, max_z = Integer.MIN_VALUE;
+            for (Chunk chunk : world.getChunkProvider().getLoadedChunks())
+            {
+                min_x = Math.min(min_x, chunk.x);
+                max_x = Math.max(max_x, chunk.x);
+                min_z = Math.min(min_z, chunk.z);
+                max_z = Math.max(max_z, chunk.z);
+            }
+            for (int row = 0; row < row_count; row++)
+            {
+                if (slot(keys[row]) == slot)
+                {
+                    min_x = Math.min(min_x, chunk_x(keys[row]));
+                    max_x = Math.max(max_x, chunk_x(keys[row]));
+                    min_z = Math.min(min_z, chunk_z(keys[row]));
+                    max_z = Math.max(max_z, chunk_z(keys[row]));
+                }
+            }
+            if (min_x > max_x)
+            {
+                continue;
+            }
+            int width = max_x - min_x + 1;
+            int height = max_z - min_z + 1;
+            String name = world.provider.getDimensionType().getName();
+            if ((long) width * height > MAX_EXPORT_CELLS)
+            {
+                Messenger.print_server_message(server, String.format("Skipping %s, %dx%d chunks is too large to export", name, width, height));
+                continue;
+            }
+            float[] cells = new float[width * height];
+            Arrays.fill(cells, Float.NaN);
+            for (Chunk chunk : world.getChunkProvider().getLoadedChunks())
+            {
+                cells[(chunk.z - min_z) * width + chunk.x - min_x] = 0.0F;
+            }
+            for (int row = 0; row < row_count; row++)
+            {
+                if (slot(keys[row]) == slot)
+                {
+                    cells[(chunk_z(keys[row]) - min_z) * width + chunk_x(keys[row]) - min_x] = (float) (total(row) / 1000.0D / Math.max(1, ticks));
+                }
+            }
+            File file = server.getActiveAnvilConverter().getFile(server.getFolderName(), "chunk_heatmap_" + name + "_" + date + ".csv");
+            files.add(file);
+            int origin_x = min_x;
+            int origin_z = min_z;
+            Thread t = new Thread(() -> {
+                try
+                {
+                    write_matrix(file, cells, width, height, origin_x, origin_z);
+                }
+                catch (IOException e)
+                {
+                    CarpetSettings.LOG.error("[CM]: failed to write chunk heatmap to " + file, e);
+                }
+            }, "Chunk heatmap export");
+            t.setDaemon(true);
+            t.start();
+        }
+        return files;
+    }
+
+    private static void write_matrix(File file, float[] cells, int width, int height, int origin_x, int origin_z) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+        {
+            StringBuilder line = new StringBuilder("z\\x");
+            for (int x = 0; x < width; x++)
+            {
+                line.append(',').append(origin_x + x);
+            }
+            out.println(line);
+            for (int z = 0; z < height; z++)
+            {
+                line.setLength(0);
+                line.append(origin_z + z);
+                for (int x = 0; x < width; x++)
+                {
+                    float value = cells[z * width + x];
+                    line.append(',');
+                    if (!Float.isNaN(value))
+                    {
+                        line.append(Math.round(value * 100) / 100.0D);
+                    }
+                }
+                out.println(line);
+            }
+        }
+    }
+}
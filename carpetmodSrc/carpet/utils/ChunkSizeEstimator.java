@@ -0,0 +1,177 @@
+package carpet.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import carpet.CarpetSettings;
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ClassInheritanceMultiMap;
+import net.minecraft.world.NextTickListEntry;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Estimates the compressed size a chunk is saved with, without serializing the whole chunk every time.
+ * Entities and tile entities are measured one by one as uncompressed NBT, and a measurement is kept
+ * until the entity or tile entity is gone, the tile entity is marked dirty or the measurement is
+ * {@link #REMEASURE_TICKS} old. Sections are counted at their largest possible size, and pending tile
+ * ticks at the size of one saved entry each. The uncompressed total is scaled by the compression ratio
+ * of the last exact measurement, and the chunk is only serialized and compressed again when that
+ * estimate gets near the region file limit.
+ */
+public class ChunkSizeEstimator
+{
+    /** Largest compressed size a region file can store a chunk with, see ChunkProviderServer.tick */
+    public static final int LIMIT = 255 * 4096 - 5;
+    /** Estimates from here on are replaced by the exact size */
+    private static final int NEAR_LIMIT = LIMIT / 2;
+    private static final int REMEASURE_TICKS = 200;
+
+    // Blocks, Add, Data, BlockLight and SkyLight arrays plus tag names
+    private static final int SECTION_SIZE = 4096 + 4 * 2048 + 128;
+    // Biomes, HeightMap and the small tags of the level compound
+    private static final int CHUNK_OVERHEAD = 256 + 1024 + 512;
+    // one entry of the TileTicks list, the block id and five ints with their tag names
+    private static final int TILE_TICK_SIZE = 72;
+
+    private final Chunk chunk;
+    private final Map<Entity, Measurement> entities = new IdentityHashMap<>();
+    private final Map<TileEntity, Measurement> tileEntities = new IdentityHashMap<>();
+    private int pass;
+    private int tileTicks;
+    private long tileTicksTime = -REMEASURE_TICKS;
+
+    // compressed / uncompressed size of the last exact measurement, 1 until there is one
+    private double ratio = 1.0D;
+    private int calibratedSize;
+
+    private static class Measurement
+    {
+        final int size;
+        final long time;
+        int pass;
+
+        Measurement(int size, long time)
+        {
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    public ChunkSizeEstimator(Chunk chunk)
+    {
+        this.chunk = chunk;
+    }
+
+    public static int estimateSavedSize(Chunk chunk)
+    {
+        if (chunk.savedSizeEstimator == null)
+            chunk.savedSizeEstimator = new ChunkSizeEstimator(chunk);
+        return chunk.savedSizeEstimator.getSavedSize();
+    }
+
+    /**
+     * Called when a tile entity of the chunk is marked dirty, its contents might have changed size.
+     */
+    public void markDirty(TileEntity tileEntity)
+    {
+        tileEntities.remove(tileEntity);
+    }
+
+    /**
+     * The compressed size of the chunk, exact if it is anywhere near {@link #LIMIT}.
+     */
+    public int getSavedSize()
+    {
+        long now = chunk.getWorld().getTotalWorldTime();
+        pass++;
+
+        int uncompressed = CHUNK_OVERHEAD;
+        for (ExtendedBlockStorage section : chunk.getBlockStorageArray())
+        {
+            if (section != Chunk.NULL_BLOCK_STORAGE)
+                uncompressed += SECTION_SIZE;
+        }
+        for (ClassInheritanceMultiMap<Entity> list : chunk.getEntityLists())
+        {
+            for (Entity entity : list)
+            {
+                Measurement measurement = entities.get(entity);
+                if (measurement == null || now - measurement.time >= REMEASURE_TICKS)
+                {
+                    NBTTagCompound tag = new NBTTagCompound();
+                    measurement = new Measurement(entity.writeToNBTOptional(tag) ? sizeOf(tag) : 0, now);
+                    entities.put(entity, measurement);
+                }
+                measurement.pass = pass;
+                uncompressed += measurement.size;
+            }
+        }
+        for (TileEntity tileEntity : chunk.getTileEntityMap().values())
+        {
+            Measurement measurement = tileEntities.get(tileEntity);
+            if (measurement == null || now - measurement.time >= REMEASURE_TICKS)
+            {
+                measurement = new Measurement(sizeOf(tileEntity.writeToNBT(new NBTTagCompound())), now);
+                tileEntities.put(tileEntity, measurement);
+            }
+            measurement.pass = pass;
+            uncompressed += measurement.size;
+        }
+        // without tileTickWheel, finding the tile ticks of the chunk goes through those of the whole world
+        if (CarpetSettings.tileTickWheel || now - tileTicksTime >= REMEASURE_TICKS)
+        {
+            List<NextTickListEntry> pending = chunk.getWorld().getPendingBlockUpdates(chunk, false);
+            tileTicks = pending == null ? 0 : pending.size();
+            tileTicksTime = now;
+        }
+        uncompressed += tileTicks * TILE_TICK_SIZE;
+        removeUnseen(entities);
+        removeUnseen(tileEntities);
+
+        // the ratio only holds while the chunk stays roughly the same
+        if (calibratedSize != 0 && Math.abs(uncompressed - calibratedSize) > calibratedSize / 4)
+        {
+            ratio = 1.0D;
+            calibratedSize = 0;
+        }
+        int estimate = (int) Math.ceil(uncompressed * ratio);
+        if (estimate < NEAR_LIMIT)
+            return estimate;
+
+        int exact = UnloadOrder.getSavedChunkSize(chunk);
+        ratio = (double) exact / uncompressed;
+        calibratedSize = uncompressed;
+        return exact;
+    }
+
+    private void removeUnseen(Map<?, Measurement> measurements)
+    {
+        Iterator<Measurement> it = measurements.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().pass != pass)
+                it.remove();
+        }
+    }
+
+    private static int sizeOf(NBTTagCompound tag)
+    {
+        CountingOutputStream counter = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        try
+        {
+            CompressedStreamTools.write(tag, new DataOutputStream(counter));
+        }
+        catch (IOException ignore) {}
+        return counter.getCount();
+    }
+}
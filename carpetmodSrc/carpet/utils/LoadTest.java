@@ -0,0 +1,363 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import carpet.logging.logHelpers.PacketCounter;
+import carpet.patches.EntityPlayerMPFake;
+import carpet.patches.NetworkManagerFake;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Capacity test with fake players. Bots are added in steps until the requested number is reached,
+ * and for every step the tick times, chunk loading, memory and packets are measured. Afterwards
+ * the bots are removed and the report is printed and written in the world folder.
+ */
+public class LoadTest
+{
+    public enum Pattern
+    {
+        /** stand still and use the held item */
+        idle,
+        /** walk in circles around the center */
+        walk,
+        /** fly away from the center in a straight line, loading and generating new chunks */
+        fly
+    }
+
+    private static final String BOT_PREFIX = "loadbot_";
+    public static final int WARMUP_TICKS = 100;
+    private static final int USE_INTERVAL = 20;
+    private static final double GOLDEN_ANGLE = Math.PI * (3.0D - Math.sqrt(5.0D));
+    private static final double FLY_HEIGHT = 160.0D;
+    private static final double FLY_SPEED = 1.0D;
+
+    public static long chunks_loaded = 0;
+    public static long chunks_generated = 0;
+
+    private static boolean running = false;
+    private static int max_bots;
+    private static int step_size;
+    private static int step_ticks;
+    private static Pattern pattern;
+    private static int radius;
+    private static int dimension;
+    private static BlockPos center;
+
+    private static final List<Bot> bots = new ArrayList<>();
+    private static final List<Step> steps = new ArrayList<>();
+    private static int step_tick;
+    private static int spawned;
+
+    private static int ticks_measured;
+    private static long tick_time_sum;
+    private static long tick_time_max;
+    private static long start_loaded;
+    private static long start_generated;
+    private static long start_packets;
+    private static long start_bot_packets;
+
+    private static class Bot
+    {
+        final EntityPlayerMPFake player;
+        final double angle;
+
+        Bot(EntityPlayerMPFake player, double angle)
+        {
+            this.player = player;
+            this.angle = angle;
+        }
+    }
+
+    private static class Step
+    {
+        int bots;
+        int ticks;
+        double mspt;
+        double max_mspt;
+        double loaded_per_second;
+        double generated_per_second;
+        int loaded_chunks;
+        long used_memory;
+        double packets_per_tick;
+        double bot_packets_per_tick;
+    }
+
+    public static boolean is_running()
+    {
+        return running;
+    }
+
+    public static void start(MinecraftServer server, WorldServer world, BlockPos pos, int max, int step, int seconds, Pattern pattern, int radius)
+    {
+        LoadTest.running = true;
+        LoadTest.max_bots = max;
+        LoadTest.step_size = step;
+        LoadTest.step_ticks = seconds * 20;
+        LoadTest.pattern = pattern;
+        LoadTest.radius = radius;
+        LoadTest.dimension = world.provider.getDimensionType().getId();
+        LoadTest.center = pos;
+        bots.clear();
+        steps.clear();
+        spawned = 0;
+        next_step(server);
+    }
+
+    public static void stop(MinecraftServer server)
+    {
+        if (!running)
+        {
+            return;
+        }
+        running = false;
+        for (Bot bot : bots)
+        {
+            bot.player.despawn();
+        }
+        bots.clear();
+        report(server);
+    }
+
+    public static void status(MinecraftServer server)
+    {
+        if (!running)
+        {
+            Messenger.print_server_message(server, "No load test is running");
+            return;
+        }
+        Messenger.print_server_message(server, String.format("Load test: %d/%d bots (%s), step %d, %ds into the step",
+                bots.size(), max_bots, pattern, steps.size() + 1, step_tick / 20));
+    }
+
+    public static void tick(MinecraftServer server)
+    {
+        if (!running)
+        {
+            return;
+        }
+        bots.removeIf(bot -> bot.player.isDead || server.getPlayerList().getPlayerByUUID(bot.player.getUniqueID()) != bot.player);
+        for (Bot bot : bots)
+        {
+            move(bot);
+        }
+
+        step_tick++;
+        if (step_tick == WARMUP_TICKS)
+        {
+            reset_measurement();
+        }
+        else if (step_tick > WARMUP_TICKS)
+        {
+            // this runs at the start of a tick, so the previous tick is the last one fully measured
+            long tick_time = server.tickTimeArray[(server.getTickCounter() + 99) % 100];
+            tick_time_sum += tick_time;
+            tick_time_max = Math.max(tick_time_max, tick_time);
+            ticks_measured++;
+        }
+        if (step_tick >= step_ticks)
+        {
+            finish_step(server);
+            if (spawned >= max_bots)
+            {
+                stop(server);
+            }
+            else
+            {
+                next_step(server);
+            }
+        }
+    }
+
+    private static void next_step(MinecraftServer server)
+    {
+        int count = Math.min(step_size, max_bots - spawned);
+        for (int i = 0; i < count; i++)
+        {
+            Bot bot = spawn(server, spawned++);
+            if (bot != null)
+            {
+                bots.add(bot);
+            }
+        }
+        step_tick = 0;
+        Messenger.print_server_message(server, String.format("Load test: step %d with %d bots", steps.size() + 1, bots.size()));
+    }
+
+    private static Bot spawn(MinecraftServer server, int index)
+    {
+        String name = BOT_PREFIX + index;
+        if (server.getPlayerList().getPlayerByUsername(name) != null)
+        {
+            return null;
+        }
+        double angle = index * GOLDEN_ANGLE;
+        double distance = pattern == Pattern.fly ? 0.0D : radius;
+        double x = center.getX() + 0.5D + Math.cos(angle) * distance;
+        double z = center.getZ() + 0.5D + Math.sin(angle) * distance;
+        double y = pattern == Pattern.fly ? FLY_HEIGHT : center.getY();
+        EntityPlayerMPFake player = EntityPlayerMPFake.createFake(name, server, x, y, z, 0.0D, 0.0D, dimension, 1, false);
+        player.actionPack.setUse(USE_INTERVAL, index % USE_INTERVAL);
+        if (pattern == Pattern.walk)
+        {
+            player.actionPack.setForward(1.0F);
+            player.actionPack.setSprinting(true);
+        }
+        else if (pattern == Pattern.fly)
+        {
+            player.capabilities.isFlying = true;
+        }
+        return new Bot(player, angle);
+    }
+
+    private static void move(Bot bot)
+    {
+        EntityPlayerMPFake player = bot.player;
+        if (pattern == Pattern.walk)
+        {
+            // follow the tangent of the circle, corrected towards the radius
+            double dx = player.posX - center.getX() - 0.5D;
+            double dz = player.posZ - center.getZ() - 0.5D;
+            double distance = Math.max(Math.sqrt(dx * dx + dz * dz), 1.0D);
+            double correction = (distance - radius) / Math.max(radius, 1);
+            double mx = (-dz - correction * dx) / distance;
+            double mz = (dx - correction * dz) / distance;
+            player.actionPack.look((float) (MathHelper.atan2(-mx, mz) * 180.0D / Math.PI), 0.0F);
+        }
+        else if (pattern == Pattern.fly)
+        {
+            double mx = Math.cos(bot.angle);
+            double mz = Math.sin(bot.angle);
+            player.setLocationAndAngles(player.posX + mx * FLY_SPEED, FLY_HEIGHT, player.posZ + mz * FLY_SPEED,
+                    (float) (MathHelper.atan2(-mx, mz) * 180.0D / Math.PI), 0.0F);
+        }
+    }
+
+    /**
+     * Packets dropped for fake players per type, most frequent first.
+     */
+    public static void packet_report(MinecraftServer server)
+    {
+        Messenger.print_server_message(server, String.format("%d packets were dropped for fake players, not counting chunk data and block changes, which aren't sent to them", NetworkManagerFake.totalOut));
+        if (!CarpetSettings.fakePlayerPacketStats)
+        {
+            Messenger.print_server_message(server, "Enable fakePlayerPacketStats to count them by type");
+            return;
+        }
+        List<Object2LongMap.Entry<Class<?>>> types = new ArrayList<>(NetworkManagerFake.outByType.object2LongEntrySet());
+        types.sort(Comparator.comparingLong(e -> -e.getLongValue()));
+        for (Object2LongMap.Entry<Class<?>> e : types)
+        {
+            Messenger.print_server_message(server, String.format(" - %s: %d", e.getKey().getSimpleName(), e.getLongValue()));
+        }
+    }
+
+    private static long packets_out()
+    {
+        return PacketCounter.resetOut + PacketCounter.totalOut;
+    }
+
+    private static void reset_measurement()
+    {
+        ticks_measured = 0;
+        tick_time_sum = 0;
+        tick_time_max = 0;
+        start_loaded = chunks_loaded;
+        start_generated = chunks_generated;
+        start_packets = packets_out();
+        start_bot_packets = NetworkManagerFake.totalOut;
+    }
+
+    private static void finish_step(MinecraftServer server)
+    {
+        if (ticks_measured == 0)
+        {
+            return;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        double seconds = ticks_measured / 20.0D;
+        Step step = new Step();
+        step.bots = bots.size();
+        step.ticks = ticks_measured;
+        step.mspt = tick_time_sum / 1000000.0D / ticks_measured;
+        step.max_mspt = tick_time_max / 1000000.0D;
+        step.loaded_per_second = (chunks_loaded - start_loaded) / seconds;
+        step.generated_per_second = (chunks_generated - start_generated) / seconds;
+        for (WorldServer world : server.worlds)
+        {
+            step.loaded_chunks += world.getChunkProvider().getLoadedChunkCount();
+        }
+        step.used_memory = runtime.totalMemory() - runtime.freeMemory();
+        step.packets_per_tick = (double) (packets_out() - start_packets) / ticks_measured;
+        step.bot_packets_per_tick = (double) (NetworkManagerFake.totalOut - start_bot_packets) / ticks_measured;
+        steps.add(step);
+        Messenger.print_server_message(server, format(step));
+    }
+
+    private static String format(Step step)
+    {
+        return String.format(" - %d bots: %.2f mspt (max %.2f), %.1f loaded/s, %.1f generated/s, %d chunks, %dMB, %.1f packets/tick + %.1f to bots without chunks",
+                step.bots, step.mspt, step.max_mspt, step.loaded_per_second, step.generated_per_second,
+                step.loaded_chunks, step.used_memory >> 20, step.packets_per_tick, step.bot_packets_per_tick);
+    }
+
+    private static void report(MinecraftServer server)
+    {
+        if (steps.isEmpty())
+        {
+            Messenger.print_server_message(server, "Load test stopped before any step was measured");
+            return;
+        }
+        Messenger.print_server_message(server, String.format("Load test report (%s, %d steps, max memory %dMB):",
+                pattern, steps.size(), Runtime.getRuntime().maxMemory() >> 20));
+        for (Step step : steps)
+        {
+            Messenger.print_server_message(server, format(step));
+        }
+        Messenger.print_server_message(server, "Packets are sent to real clients + sent to the bots");
+        File file = export(server);
+        Messenger.print_server_message(server, "Report written to " + file.getName());
+    }
+
+    private static File export(MinecraftServer server)
+    {
+        List<Step> rows = new ArrayList<>(steps);
+        String name = "load_test_" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date()) + ".csv";
+        File file = server.getActiveAnvilConverter().getFile(server.getFolderName(), name);
+        Thread t = new Thread(() -> {
+            try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+            {
+                out.println("bots,ticks,mspt,max mspt,chunks loaded/s,chunks generated/s,loaded chunks,used memory (MB),packets/tick,bot packets/tick without chunks");
+                for (Step step : rows)
+                {
+                    out.println(step.bots + "," + step.ticks + "," + round(step.mspt) + "," + round(step.max_mspt) + ","
+                            + round(step.loaded_per_second) + "," + round(step.generated_per_second) + "," + step.loaded_chunks + ","
+                            + (step.used_memory >> 20) + "," + round(step.packets_per_tick) + "," + round(step.bot_packets_per_tick));
+                }
+            }
+            catch (IOException e)
+            {
+                CarpetSettings.LOG.error("[CM]: failed to write load test report to " + file, e);
+            }
+        }, "Load test export");
+        t.setDaemon(true);
+        t.start();
+        return file;
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0D;
+    }
+}
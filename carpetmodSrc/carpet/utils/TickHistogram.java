@@ -0,0 +1,115 @@
+package carpet.utils;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of log-linear histograms sharing one primitive array, so tick
+ * times can be recorded every tick without allocating anything.
+ * Samples are in microseconds. Values below 16us get their own bucket, above
+ * that every power of two is split in 8 buckets, which keeps percentiles
+ * within 12.5% of the real value.
+ */
+public class TickHistogram
+{
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_MAGNITUDE = 4;
+    private static final int MAX_MAGNITUDE = 36;
+    public static final int BUCKETS = LINEAR_BUCKETS + (MAX_MAGNITUDE - MIN_MAGNITUDE + 1) * SUB_BUCKETS;
+
+    private final int histograms;
+    private final int[] counts;
+    private final long[] samples;
+
+    public TickHistogram(int histograms)
+    {
+        this.histograms = histograms;
+        this.counts = new int[histograms * BUCKETS];
+        this.samples = new long[histograms];
+    }
+
+    public int size()
+    {
+        return histograms;
+    }
+
+    public void record(int histogram, long micros)
+    {
+        counts[histogram * BUCKETS + bucket(micros)]++;
+        samples[histogram]++;
+    }
+
+    public long count(int histogram)
+    {
+        return samples[histogram];
+    }
+
+    /**
+     * Returns the value in microseconds below which the given fraction of the samples fall,
+     * approximated by the middle of the bucket holding it.
+     */
+    public double percentile(int histogram, double fraction)
+    {
+        long total = samples[histogram];
+        if (total == 0)
+        {
+            return 0.0D;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        int offset = histogram * BUCKETS;
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += counts[offset + b];
+            if (seen >= rank)
+            {
+                return (bucketLow(b) + bucketHigh(b)) / 2.0D;
+            }
+        }
+        return bucketHigh(BUCKETS - 1);
+    }
+
+    public void clear()
+    {
+        Arrays.fill(counts, 0);
+        Arrays.fill(samples, 0L);
+    }
+
+    static int bucket(long micros)
+    {
+        if (micros < LINEAR_BUCKETS)
+        {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude > MAX_MAGNITUDE)
+        {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (magnitude - MIN_MAGNITUDE) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketLow(int bucket)
+    {
+        if (bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+        int magnitude = MIN_MAGNITUDE + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        long top = SUB_BUCKETS + (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return top << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    static long bucketHigh(int bucket)
+    {
+        if (bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+        int magnitude = MIN_MAGNITUDE + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        long top = SUB_BUCKETS + (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((top + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
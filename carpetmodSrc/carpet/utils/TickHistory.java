@@ -0,0 +1,270 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.ITextComponent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Rolling history of the per tick section times measured by {@link CarpetProfiler}.
+ * Every tick one row is written into preallocated primitive arrays, so the
+ * history can be kept running at all times and inspected after a lag spike.
+ * Times are stored as microseconds, one column per profiler section and dimension.
+ */
+public class TickHistory
+{
+    private static final int BINARY_MAGIC = 0x434D5448; // "CMTH"
+    private static final int BINARY_VERSION = 1;
+    private static final int WORST_TICKS = 5;
+
+    private static int capacity = 0;
+    private static int columns = 0;
+    private static long[] timestamps = new long[0];
+    private static int[] tick_numbers = new int[0];
+    private static int[] micros = new int[0];
+    private static int head = 0;
+    private static int size = 0;
+
+    public static boolean enabled()
+    {
+        return capacity > 0;
+    }
+
+    public static void resize(int minutes)
+    {
+        if (minutes * 60 * 20 == capacity)
+        {
+            return;
+        }
+        capacity = minutes * 60 * 20;
+        columns = CarpetProfiler.column_count();
+        timestamps = new long[capacity];
+        tick_numbers = new int[capacity];
+        micros = new int[capacity * columns];
+        head = 0;
+        size = 0;
+        CarpetProfiler.set_history(capacity > 0);
+    }
+
+    static void record(int tick, long[] tick_time)
+    {
+        if (capacity == 0)
+        {
+            return;
+        }
+        timestamps[head] = System.currentTimeMillis();
+        tick_numbers[head] = tick;
+        int offset = head * columns;
+        for (int i = 0; i < columns; i++)
+        {
+            micros[offset + i] = (int) Math.min(Integer.MAX_VALUE, tick_time[i] / 1000L);
+        }
+        head = (head + 1) % capacity;
+        if (size < capacity)
+        {
+            size++;
+        }
+    }
+
+    private static int row(int age)
+    {
+        return (head - 1 - age + capacity) % capacity;
+    }
+
+    public static List<ITextComponent> report(int seconds)
+    {
+        List<ITextComponent> lines = new ArrayList<>();
+        if (size == 0)
+        {
+            lines.add(Messenger.s(null, "No tick history recorded yet", "gi"));
+            return lines;
+        }
+        int ticks = Math.min(size, seconds * 20);
+        long[] sum = new long[columns];
+        int[] max = new int[columns];
+        int[] worst = new int[WORST_TICKS];
+        int worst_count = 0;
+        int tick = CarpetProfiler.Section.TICK.ordinal();
+        for (int age = 0; age < ticks; age++)
+        {
+            int r = row(age);
+            int offset = r * columns;
+            for (int c = 0; c < columns; c++)
+            {
+                int value = micros[offset + c];
+                sum[c] += value;
+                if (value > max[c])
+                {
+                    max[c] = value;
+                }
+            }
+            // keep the slowest ticks sorted, descending
+            int value = micros[offset + tick];
+            int pos = worst_count < WORST_TICKS ? worst_count++ : WORST_TICKS;
+            while (pos > 0 && micros[worst[pos - 1] * columns + tick] < value)
+            {
+                if (pos < WORST_TICKS)
+                {
+                    worst[pos] = worst[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < WORST_TICKS)
+            {
+                worst[pos] = r;
+            }
+        }
+
+        lines.add(Messenger.m(null, String.format("w Tick history for the last %.1fs (%d ticks):", ticks / 20.0, ticks)));
+        for (int c = 0; c < columns; c++)
+        {
+            if (max[c] == 0)
+            {
+                continue;
+            }
+            String name = CarpetProfiler.column_name(c);
+            lines.add(Messenger.m(null, String.format("%s %s: avg %.3fms, max %.3fms",
+                    c == tick ? "w" : "g", name, sum[c] / 1000.0 / ticks, max[c] / 1000.0)));
+        }
+        lines.add(Messenger.m(null, "w Slowest ticks:"));
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+        for (int i = 0; i < worst_count; i++)
+        {
+            int r = worst[i];
+            lines.add(Messenger.m(null, String.format("g  - %s tick %d: %.3fms, mostly %s",
+                    format.format(new Date(timestamps[r])), tick_numbers[r], micros[r * columns + tick] / 1000.0, slowest_leaf(r))));
+        }
+        return lines;
+    }
+
+    /**
+     * The most expensive section in the given row that has no children of its own.
+     */
+    private static String slowest_leaf(int r)
+    {
+        int offset = r * columns;
+        int best = -1;
+        for (int c = 0; c < columns; c++)
+        {
+            if (CarpetProfiler.column_has_children(c) || micros[offset + c] == 0)
+            {
+                continue;
+            }
+            if (best == -1 || micros[offset + c] > micros[offset + best])
+            {
+                best = c;
+            }
+        }
+        return best == -1 ? "unknown" : CarpetProfiler.column_name(best);
+    }
+
+    /**
+     * Copies the history and writes it in the world folder on a separate thread.
+     * The binary format is a header (magic, version, column count, column names)
+     * followed by rows of timestamp, tick number and one int of microseconds per column.
+     */
+    public static File export(MinecraftServer server, boolean csv)
+    {
+        if (size == 0)
+        {
+            return null;
+        }
+        int rows = size;
+        int cols = columns;
+        long[] stamps = new long[rows];
+        int[] ticks = new int[rows];
+        int[] values = new int[rows * cols];
+        for (int i = 0; i < rows; i++)
+        {
+            int r = row(rows - 1 - i);
+            stamps[i] = timestamps[r];
+            ticks[i] = tick_numbers[r];
+            System.arraycopy(micros, r * cols, values, i * cols, cols);
+        }
+        String[] names = new String[cols];
+        for (int c = 0; c < cols; c++)
+        {
+            names[c] = CarpetProfiler.column_name(c);
+        }
+
+        String name = "tick_history_" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date()) + (csv ? ".csv" : ".bin");
+        File file = server.getActiveAnvilConverter().getFile(server.getFolderName(), name);
+        Thread t = new Thread(() -> {
+            try
+            {
+                if (csv)
+                {
+                    write_csv(file, names, stamps, ticks, values);
+                }
+                else
+                {
+                    write_binary(file, names, stamps, ticks, values);
+                }
+            }
+            catch (IOException e)
+            {
+                CarpetSettings.LOG.error("[CM]: failed to write tick history to " + file, e);
+            }
+        }, "Tick history export");
+        t.setDaemon(true);
+        t.start();
+        return file;
+    }
+
+    private static void write_csv(File file, String[] names, long[] stamps, int[] ticks, int[] values) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8"))
+        {
+            StringBuilder line = new StringBuilder("timestamp,tick");
+            for (String name : names)
+            {
+                line.append(',').append(name).append(" (us)");
+            }
+            out.println(line);
+            for (int i = 0; i < stamps.length; i++)
+            {
+                line.setLength(0);
+                line.append(stamps[i]).append(',').append(ticks[i]);
+                for (int c = 0; c < names.length; c++)
+                {
+                    line.append(',').append(values[i * names.length + c]);
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    private static void write_binary(File file, String[] names, long[] stamps, int[] ticks, int[] values) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION);
+            out.writeInt(names.length);
+            for (String name : names)
+            {
+                out.writeUTF(name);
+            }
+            out.writeInt(stamps.length);
+            for (int i = 0; i < stamps.length; i++)
+            {
+                out.writeLong(stamps[i]);
+                out.writeInt(ticks[i]);
+                for (int c = 0; c < names.length; c++)
+                {
+                    out.writeInt(values[i * names.length + c]);
+                }
+            }
+        }
+    }
+}
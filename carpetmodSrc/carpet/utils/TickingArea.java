@@ -1,12 +1,13 @@
 package carpet.utils;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -14,13 +15,30 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
@@ -40,7 +58,17 @@ public abstract class TickingArea
     
     public static boolean isTickingChunk(World world, int chunkX, int chunkZ)
     {
-        return world.tickingChunks.contains(ChunkPos.asLong(chunkX, chunkZ));
+        return world.tickingChunks.contains(chunkX, chunkZ);
+    }
+    
+    public static List<TickingArea> getTickingAreasAt(World world, int chunkX, int chunkZ)
+    {
+        return world.tickingChunks.getAreas(chunkX, chunkZ);
+    }
+    
+    public static int getTickingChunkCount(World world)
+    {
+        return world.tickingChunks.getChunkCount();
     }
     
     public static List<TickingArea> getTickingAreas(World world)
@@ -51,15 +79,13 @@ public abstract class TickingArea
     public static void addTickingArea(World world, TickingArea area)
     {
         world.tickingAreas.add(area);
-        for (ChunkPos pos : area.listIncludedChunks(world))
-        {
-            world.tickingChunks.add(ChunkPos.asLong(pos.x, pos.z));
-        }
+        world.tickingChunks.add(world, area);
     }
     
     public static boolean removeTickingAreas(World world, int chunkX, int chunkZ)
     {
-        return removeTickingAreaIf(world, area -> area.contains(world, chunkX, chunkZ));
+        List<TickingArea> areas = world.tickingChunks.getAreas(chunkX, chunkZ);
+        return removeTickingAreaIf(world, areas::contains);
     }
     
     public static boolean removeTickingAreas(World world, String name)
@@ -78,13 +104,7 @@ public abstract class TickingArea
             {
                 itr.remove();
                 anyRemoved = true;
-                for (ChunkPos chunk : area.listIncludedChunks(world))
-                {
-                    if (world.tickingAreas.stream().noneMatch(a -> a.contains(world, chunk.x, chunk.z)))
-                    {
-                        world.tickingChunks.remove(ChunkPos.asLong(chunk.x, chunk.z));
-                    }
-                }
+                world.tickingChunks.remove(area);
             }
         }
         return anyRemoved;
@@ -103,85 +123,153 @@ public abstract class TickingArea
     
     // CONFIG
     
+    // Ticking areas are saved as compressed NBT. The old text config is still read when a world has no
+    // NBT config yet, and is left in place so older versions can read it.
+    private static final String CONFIG_FILE = "tickingareas.dat";
+    private static final String LEGACY_CONFIG_FILE = "tickingareas.conf";
+    
+    @Nullable
+    private static File getConfigFolder(World world)
+    {
+        IChunkProvider chunkProvider = world.getChunkProvider();
+        if (!(chunkProvider instanceof ChunkProviderServer))
+            return null;
+        IChunkLoader chunkLoader = ((ChunkProviderServer) chunkProvider).chunkLoader;
+        if (!(chunkLoader instanceof AnvilChunkLoader))
+            return null;
+        return ((AnvilChunkLoader) chunkLoader).chunkSaveLocation;
+    }
+    
+    @Nullable
+    private static TickingArea createArea(String type)
+    {
+        switch (type)
+        {
+        case "square":
+            return new Square();
+        case "circle":
+            return new Circle();
+        case "spawnChunks":
+            return new SpawnChunks();
+        default:
+            return null;
+        }
+    }
+    
     public static void loadConfig(MinecraftServer server)
     {
         for (World world : server.worlds)
         {
             removeAllTickingAreas(world);
             
-            IChunkProvider chunkProvider = world.getChunkProvider();
-            if (!(chunkProvider instanceof ChunkProviderServer))
-            {
+            File folder = getConfigFolder(world);
+            if (folder == null)
                 continue;
-            }
-            IChunkLoader chunkLoader = ((ChunkProviderServer) chunkProvider).chunkLoader;
-            if (!(chunkLoader instanceof AnvilChunkLoader))
-            {
-                continue;
-            }
             
-            File configFile = new File(((AnvilChunkLoader) chunkLoader).chunkSaveLocation, "tickingareas.conf");
-            if (!configFile.isFile())
+            File configFile = new File(folder, CONFIG_FILE);
+            if (configFile.isFile())
             {
+                loadConfig(world, configFile);
                 continue;
             }
             
-            try (BufferedReader reader = new BufferedReader(new FileReader(configFile)))
+            File legacyConfigFile = new File(folder, LEGACY_CONFIG_FILE);
+            if (legacyConfigFile.isFile())
             {
-                reader.lines().forEach(line -> {
-                    String[] args = line.split(" ");
-                    TickingArea area;
-                    switch (args[0])
-                    {
-                    case "square":
-                        area = new Square();
-                        break;
-                    case "circle":
-                        area = new Circle();
-                        break;
-                    case "spawnChunks":
-                        area = new SpawnChunks();
-                        break;
-                    default:
-                        LOGGER.error("[CM]: Invalid ticking area type in config file, skipping");
-                        return;
-                    }
-                    if (!area.readFromConfig(args))
-                    {
-                        LOGGER.error("[CM]: Error in ticking area parameters, skipping");
-                        return;
-                    }
-                    addTickingArea(world, area);
-                });
+                loadLegacyConfig(world, legacyConfigFile);
             }
-            catch (IOException e)
+        }
+    }
+    
+    private static void loadConfig(World world, File configFile)
+    {
+        try (InputStream in = new FileInputStream(configFile))
+        {
+            NBTTagList areas = CompressedStreamTools.readCompressed(in).getTagList("areas", 10);
+            for (int i = 0; i < areas.tagCount(); i++)
             {
-                LOGGER.error("[CM]: Couldn't load ticking area config", e);
+                NBTTagCompound nbt = areas.getCompoundTagAt(i);
+                TickingArea area = createArea(nbt.getString("type"));
+                if (area == null)
+                {
+                    LOGGER.error("[CM]: Invalid ticking area type in config file, skipping");
+                    continue;
+                }
+                if (!area.readFromNbt(nbt))
+                {
+                    LOGGER.error("[CM]: Error in ticking area parameters, skipping");
+                    continue;
+                }
+                if (nbt.hasKey("name", 8))
+                    area.setName(nbt.getString("name"));
+                addTickingArea(world, area);
             }
         }
+        catch (IOException e)
+        {
+            LOGGER.error("[CM]: Couldn't load ticking area config", e);
+        }
+    }
+    
+    private static void loadLegacyConfig(World world, File configFile)
+    {
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile)))
+        {
+            reader.lines().forEach(line -> {
+                String[] args = line.split(" ");
+                TickingArea area = createArea(args[0]);
+                if (area == null)
+                {
+                    LOGGER.error("[CM]: Invalid ticking area type in config file, skipping");
+                    return;
+                }
+                if (!area.readFromConfig(args))
+                {
+                    LOGGER.error("[CM]: Error in ticking area parameters, skipping");
+                    return;
+                }
+                addTickingArea(world, area);
+            });
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("[CM]: Couldn't load ticking area config", e);
+        }
     }
     
     public static void saveConfig(MinecraftServer server)
     {
         for (World world : server.worlds)
         {
-            IChunkProvider chunkProvider = world.getChunkProvider();
-            if (!(chunkProvider instanceof ChunkProviderServer))
-                continue;
-            IChunkLoader chunkLoader = ((ChunkProviderServer) chunkProvider).chunkLoader;
-            if (!(chunkLoader instanceof AnvilChunkLoader))
+            File folder = getConfigFolder(world);
+            if (folder == null)
                 continue;
             
-            File configFile = new File(((AnvilChunkLoader) chunkLoader).chunkSaveLocation, "tickingareas.conf");
+            NBTTagList areas = new NBTTagList();
+            for (TickingArea area : world.tickingAreas)
+            {
+                NBTTagCompound nbt = new NBTTagCompound();
+                area.writeToNbt(nbt);
+                if (area.getName() != null)
+                    nbt.setString("name", area.getName());
+                areas.appendTag(nbt);
+            }
+            NBTTagCompound config = new NBTTagCompound();
+            config.setTag("areas", areas);
             
-            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(configFile))))
+            // write to a temporary file first so a crash while saving doesn't lose the config
+            File configFile = new File(folder, CONFIG_FILE);
+            File tempFile = new File(folder, CONFIG_FILE + "_tmp");
+            try
             {
-                for (TickingArea area : world.tickingAreas)
+                try (OutputStream out = new FileOutputStream(tempFile))
                 {
-                    String val = String.join(" ", Arrays.stream(area.writeToConfig()).filter(arg -> arg != null).toArray(String[]::new));
-                    writer.println(val);
+                    CompressedStreamTools.writeCompressed(config, out);
                 }
-                writer.flush();
+                if (configFile.exists() && !configFile.delete())
+                    throw new IOException("Couldn't replace " + configFile);
+                if (!tempFile.renameTo(configFile))
+                    throw new IOException("Couldn't rename " + tempFile + " to " + configFile);
             }
             catch (IOException e)
             {
@@ -192,6 +280,9 @@ public abstract class TickingArea
     
     // GLOBAL UTILITY METHODS
     
+    // At most this many chunks are read ahead of the main thread, which bounds the memory used by preloading
+    private static final int PRELOAD_LIMIT = 1024;
+    
     public static void initialChunkLoad(MinecraftServer server, boolean log)
     {
         for (WorldServer world : server.worlds)
@@ -201,35 +292,173 @@ public abstract class TickingArea
                 if (log)
                     LOGGER.info("[CM]: Preparing start region for level " + world.provider.getDimensionType().getId());
                 
-                TreeSet<ChunkPos> chunksToLoad = new TreeSet<>(Comparator.<ChunkPos>comparingInt(chunk -> chunk.x).thenComparingInt(chunk -> chunk.z));
-                for (TickingArea area : TickingArea.getTickingAreas(world))
+                List<Region> regions = groupByRegion(world);
+                int total = regions.stream().mapToInt(region -> region.chunks.size()).sum();
+                
+                ChunkProviderServer chunkProvider = world.getChunkProvider();
+                AnvilChunkLoader loader = chunkProvider.chunkLoader instanceof AnvilChunkLoader ? (AnvilChunkLoader) chunkProvider.chunkLoader : null;
+                
+                // Region files are read, decompressed and data fixed on worker threads, one region per task.
+                // The main thread only turns the NBT into chunks, in the order the workers hand them over.
+                BlockingQueue<Long> ready = new LinkedBlockingQueue<>();
+                Semaphore readAhead = new Semaphore(PRELOAD_LIMIT);
+                ExecutorService workers = null;
+                if (loader == null)
+                {
+                    for (Region region : regions)
+                    {
+                        for (int i = 0; i < region.chunks.size(); i++)
+                            ready.add(region.chunks.getLong(i));
+                    }
+                }
+                else
                 {
-                    chunksToLoad.addAll(area.listIncludedChunks(world));
+                    int threads = MathHelper.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 4);
+                    workers = Executors.newFixedThreadPool(threads, task -> {
+                        Thread thread = new Thread(task, "Ticking area preloading");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    for (Region region : regions)
+                    {
+                        workers.execute(() -> region.preload(loader, ready, readAhead));
+                    }
                 }
                 
-                int count = 0;
-                long lastTime = MinecraftServer.getCurrentTimeMillis();
-                for (ChunkPos chunk : chunksToLoad)
+                try
                 {
-                    if (!server.isServerRunning())
-                        break;
-                    
-                    long time = MinecraftServer.getCurrentTimeMillis();
-                    
-                    if (time - lastTime > 1000)
+                    int count = 0;
+                    long lastTime = MinecraftServer.getCurrentTimeMillis();
+                    while (count < total)
                     {
-                        if (log)
-                            server.outputPercentRemaining("[CM]: Preparing spawn area", count * 100 / chunksToLoad.size());
-                        lastTime = time;
+                        if (!server.isServerRunning())
+                            break;
+                        
+                        long time = MinecraftServer.getCurrentTimeMillis();
+                        
+                        if (time - lastTime > 1000)
+                        {
+                            if (log)
+                                server.outputPercentRemaining("[CM]: Preparing spawn area", count * 100 / total);
+                            lastTime = time;
+                        }
+                        
+                        Long chunk = ready.poll(100, TimeUnit.MILLISECONDS);
+                        if (chunk == null)
+                            continue;
+                        
+                        count++;
+                        chunkProvider.provideChunk((int) (long) chunk, (int) (chunk >> 32));
+                        readAhead.release();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    if (workers != null)
+                    {
+                        workers.shutdownNow();
+                        try
+                        {
+                            workers.awaitTermination(10, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                        // anything left over was never loaded and must not be picked up later with outdated data
+                        loader.preloadedChunks.clear();
                     }
-                    
-                    count++;
-                    world.getChunkProvider().provideChunk(chunk.x, chunk.z);
                 }
             }
         }
     }
     
+    /**
+     * Groups the chunks of all ticking areas by region file. Regions are loaded in the order of the first
+     * area that needs them, then by distance to the world spawn, and chunks within a region follow the
+     * order of the region file header.
+     */
+    private static List<Region> groupByRegion(World world)
+    {
+        Long2ObjectMap<Region> regionsByPos = new Long2ObjectOpenHashMap<>();
+        LongSet chunks = new LongOpenHashSet();
+        List<TickingArea> areas = TickingArea.getTickingAreas(world);
+        for (int i = 0; i < areas.size(); i++)
+        {
+            int priority = i;
+            areas.get(i).forEachIncludedChunk(world, (x, z) -> {
+                if (chunks.add(ChunkPos.asLong(x, z)))
+                {
+                    regionsByPos.computeIfAbsent(ChunkPos.asLong(x >> 5, z >> 5), k -> new Region(x >> 5, z >> 5, priority))
+                            .chunks.add(ChunkPos.asLong(x, z));
+                }
+            });
+        }
+        
+        BlockPos spawn = world.getSpawnPoint();
+        int spawnX = spawn.getX() >> 9;
+        int spawnZ = spawn.getZ() >> 9;
+        List<Region> regions = new ArrayList<>(regionsByPos.values());
+        regions.sort(Comparator.<Region>comparingInt(region -> region.priority)
+                .thenComparingInt(region -> (region.x - spawnX) * (region.x - spawnX) + (region.z - spawnZ) * (region.z - spawnZ)));
+        for (Region region : regions)
+        {
+            region.chunks.sort((a, b) -> {
+                int dz = Integer.compare((int) (a >> 32), (int) (b >> 32));
+                return dz != 0 ? dz : Integer.compare((int) a, (int) b);
+            });
+        }
+        return regions;
+    }
+    
+    private static class Region
+    {
+        final int x;
+        final int z;
+        final int priority;
+        final LongList chunks = new LongArrayList();
+        
+        Region(int x, int z, int priority)
+        {
+            this.x = x;
+            this.z = z;
+            this.priority = priority;
+        }
+        
+        void preload(AnvilChunkLoader loader, BlockingQueue<Long> ready, Semaphore readAhead)
+        {
+            for (int i = 0; i < chunks.size(); i++)
+            {
+                long chunk = chunks.getLong(i);
+                try
+                {
+                    readAhead.acquire();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                int chunkX = (int) chunk;
+                int chunkZ = (int) (chunk >> 32);
+                try
+                {
+                    NBTTagCompound nbt = loader.readChunkNBT(chunkX, chunkZ);
+                    if (nbt != null)
+                        loader.preloadedChunks.put(new ChunkPos(chunkX, chunkZ), nbt);
+                }
+                catch (Exception e)
+                {
+                    // the main thread loads it the usual way and reports the error there
+                }
+                ready.add(chunk);
+            }
+        }
+    }
+    
     // INSTANCE METHODS
     
     private String name = null;
@@ -246,14 +475,29 @@ public abstract class TickingArea
     
     protected abstract boolean contains(World world, int chunkX, int chunkZ);
     
-    public abstract List<ChunkPos> listIncludedChunks(World world);
+    public abstract void forEachIncludedChunk(World world, ChunkConsumer action);
+    
+    public List<ChunkPos> listIncludedChunks(World world)
+    {
+        List<ChunkPos> includedChunks = new ArrayList<>();
+        forEachIncludedChunk(world, (x, z) -> includedChunks.add(new ChunkPos(x, z)));
+        return includedChunks;
+    }
     
     public abstract String format();
     
-    public abstract String[] writeToConfig();
+    public abstract void writeToNbt(NBTTagCompound nbt);
+    
+    public abstract boolean readFromNbt(NBTTagCompound nbt);
     
     public abstract boolean readFromConfig(String[] args);
     
+    @FunctionalInterface
+    public interface ChunkConsumer
+    {
+        void accept(int chunkX, int chunkZ);
+    }
+    
     // TICKING AREA TYPES
     
     public static class SpawnChunks extends TickingArea
@@ -265,26 +509,22 @@ public abstract class TickingArea
         }
         
         @Override
-        public List<ChunkPos> listIncludedChunks(World world)
+        public void forEachIncludedChunk(World world, ChunkConsumer action)
         {
             BlockPos spawnPoint = world.getSpawnPoint();
             int spawnChunkX = spawnPoint.getX() / 16;
             int spawnChunkZ = spawnPoint.getZ() / 16;
             
-            List<ChunkPos> spawnChunks = new ArrayList<>();
-            
             for (int x = spawnChunkX - 9; x <= spawnChunkX + 9; x++)
             {
                 for (int z = spawnChunkZ - 9; z <= spawnChunkZ + 9; z++)
                 {
                     if (world.isSpawnChunk(x, z))
                     {
-                        spawnChunks.add(new ChunkPos(x, z));
+                        action.accept(x, z);
                     }
                 }
             }
-            
-            return spawnChunks;
         }
         
         @Override
@@ -294,9 +534,15 @@ public abstract class TickingArea
         }
 
         @Override
-        public String[] writeToConfig()
+        public void writeToNbt(NBTTagCompound nbt)
+        {
+            nbt.setString("type", "spawnChunks");
+        }
+        
+        @Override
+        public boolean readFromNbt(NBTTagCompound nbt)
         {
-            return new String[] {"spawnChunks", getName()};
+            return true;
         }
 
         @Override
@@ -329,19 +575,15 @@ public abstract class TickingArea
         }
         
         @Override
-        public List<ChunkPos> listIncludedChunks(World world)
+        public void forEachIncludedChunk(World world, ChunkConsumer action)
         {
-            List<ChunkPos> includedChunks = new ArrayList<>();
-            
             for (int x = min.x; x <= max.x; x++)
             {
                 for (int z = min.z; z <= max.z; z++)
                 {
-                    includedChunks.add(new ChunkPos(x, z));
+                    action.accept(x, z);
                 }
             }
-            
-            return includedChunks;
         }
         
         @Override
@@ -351,9 +593,25 @@ public abstract class TickingArea
         }
 
         @Override
-        public String[] writeToConfig()
+        public void writeToNbt(NBTTagCompound nbt)
         {
-            return new String[] {"square", String.valueOf(min.x), String.valueOf(min.z), String.valueOf(max.x), String.valueOf(max.z), getName()};
+            nbt.setString("type", "square");
+            nbt.setIntArray("min", new int[] {min.x, min.z});
+            nbt.setIntArray("max", new int[] {max.x, max.z});
+        }
+        
+        @Override
+        public boolean readFromNbt(NBTTagCompound nbt)
+        {
+            int[] min = nbt.getIntArray("min");
+            int[] max = nbt.getIntArray("max");
+            if (min.length != 2 || max.length != 2)
+                return false;
+            if (min[0] > max[0] || min[1] > max[1])
+                return false;
+            this.min = new ChunkPos(min[0], min[1]);
+            this.max = new ChunkPos(max[0], max[1]);
+            return true;
         }
 
         @Override
@@ -409,22 +667,18 @@ public abstract class TickingArea
         }
         
         @Override
-        public List<ChunkPos> listIncludedChunks(World world)
+        public void forEachIncludedChunk(World world, ChunkConsumer action)
         {
-            List<ChunkPos> includedChunks = new ArrayList<>();
-            
             for (int x = MathHelper.floor(center.x - radius); x <= center.x + radius; x++)
             {
                 for (int z = MathHelper.floor(center.z - radius); z <= center.z + radius; z++)
                 {
                     if (contains(world, x, z))
                     {
-                        includedChunks.add(new ChunkPos(x, z));
+                        action.accept(x, z);
                     }
                 }
             }
-            
-            return includedChunks;
         }
         
         @Override
@@ -434,9 +688,23 @@ public abstract class TickingArea
         }
 
         @Override
-        public String[] writeToConfig()
+        public void writeToNbt(NBTTagCompound nbt)
+        {
+            nbt.setString("type", "circle");
+            nbt.setIntArray("center", new int[] {center.x, center.z});
+            nbt.setDouble("radius", radius);
+        }
+        
+        @Override
+        public boolean readFromNbt(NBTTagCompound nbt)
         {
-            return new String[] {"circle", String.valueOf(center.x), String.valueOf(center.z), String.valueOf(radius), getName()};
+            int[] center = nbt.getIntArray("center");
+            double radius = nbt.getDouble("radius");
+            if (center.length != 2 || radius < 0)
+                return false;
+            this.center = new ChunkPos(center[0], center[1]);
+            this.radius = radius;
+            return true;
         }
 
         @Override
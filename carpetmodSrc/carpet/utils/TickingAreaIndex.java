@@ -0,0 +1,116 @@
+package carpet.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+/**
+ * Chunks covered by the ticking areas of a world, keyed by {@link ChunkPos#asLong}. Every chunk keeps
+ * the areas that cover it, so the number of those is its reference count and adding or removing an
+ * area only touches the chunks of that area. The chunks of an area are remembered when it is added,
+ * so it is removed exactly even if it would cover different chunks by then, like the spawn chunks
+ * after the spawn point moved.
+ */
+public class TickingAreaIndex
+{
+    private static final TickingArea[] NONE = new TickingArea[0];
+
+    private final Long2ObjectMap<TickingArea[]> areasByChunk = new Long2ObjectOpenHashMap<>();
+    private final Map<TickingArea, long[]> chunksByArea = new IdentityHashMap<>();
+
+    public void add(World world, TickingArea area)
+    {
+        LongArrayList chunks = new LongArrayList();
+        area.forEachIncludedChunk(world, (x, z) -> chunks.add(ChunkPos.asLong(x, z)));
+        long[] keys = chunks.toLongArray();
+        if (chunksByArea.put(area, keys) != null)
+            throw new IllegalArgumentException("Ticking area is already indexed");
+
+        for (long key : keys)
+        {
+            TickingArea[] areas = areasByChunk.getOrDefault(key, NONE);
+            areas = Arrays.copyOf(areas, areas.length + 1);
+            areas[areas.length - 1] = area;
+            areasByChunk.put(key, areas);
+        }
+    }
+
+    public void remove(TickingArea area)
+    {
+        long[] keys = chunksByArea.remove(area);
+        if (keys == null)
+            return;
+
+        for (long key : keys)
+        {
+            TickingArea[] areas = areasByChunk.get(key);
+            int index = areas == null ? -1 : indexOf(areas, area);
+            if (index < 0)
+                continue;
+
+            if (areas.length == 1)
+            {
+                areasByChunk.remove(key);
+            }
+            else
+            {
+                TickingArea[] newAreas = new TickingArea[areas.length - 1];
+                System.arraycopy(areas, 0, newAreas, 0, index);
+                System.arraycopy(areas, index + 1, newAreas, index, newAreas.length - index);
+                areasByChunk.put(key, newAreas);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        areasByChunk.clear();
+        chunksByArea.clear();
+    }
+
+    public boolean contains(int chunkX, int chunkZ)
+    {
+        return areasByChunk.containsKey(ChunkPos.asLong(chunkX, chunkZ));
+    }
+
+    /**
+     * The areas covering the given chunk, in the order they were added.
+     */
+    public List<TickingArea> getAreas(int chunkX, int chunkZ)
+    {
+        TickingArea[] areas = areasByChunk.get(ChunkPos.asLong(chunkX, chunkZ));
+        return areas == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(areas));
+    }
+
+    public int getReferenceCount(int chunkX, int chunkZ)
+    {
+        TickingArea[] areas = areasByChunk.get(ChunkPos.asLong(chunkX, chunkZ));
+        return areas == null ? 0 : areas.length;
+    }
+
+    /**
+     * The number of distinct chunks covered by at least one area.
+     */
+    public int getChunkCount()
+    {
+        return areasByChunk.size();
+    }
+
+    private static int indexOf(TickingArea[] areas, TickingArea area)
+    {
+        for (int i = 0; i < areas.length; i++)
+        {
+            if (areas[i] == area)
+                return i;
+        }
+        return -1;
+    }
+}
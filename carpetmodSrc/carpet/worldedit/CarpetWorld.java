@@ -22,6 +22,7 @@ import com.sk89q.worldedit.blocks.BaseItemStack;
 import com.sk89q.worldedit.blocks.LazyBlock;
 import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.internal.Constants;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.Location;
@@ -35,7 +36,6 @@ import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EntityList;
 import net.minecraft.entity.item.EntityItem;
-import net.minecraft.init.Blocks;
 import net.minecraft.inventory.IInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NBTTagCompound;
@@ -114,16 +114,9 @@ class CarpetWorld extends AbstractWorld {
         int y = position.getBlockY();
         int z = position.getBlockZ();
 
-        // First set the block
-        Chunk chunk = world.getChunk(x >> 4, z >> 4);
-        IBlockState oldState = Blocks.AIR.getDefaultState();
-
-        if (notifyAndLight) {
-            oldState = chunk.getBlockState(x & 15, y, z & 15);
-        }
-
+        // Light, client and neighbour updates are done per chunk when the edit commits
         IBlockState newState = Block.getBlockById(block.getId()).getStateFromMeta(block.getData());
-        boolean successful = chunk.setBlockState(new BlockPos(x, y, z), newState) != null;
+        boolean successful = SectionWriteBatch.get(world).setBlockState(x, y, z, newState, notifyAndLight);
 
         // Create the TileEntity
         if (successful) {
@@ -131,30 +124,24 @@ class CarpetWorld extends AbstractWorld {
             if (tag != null) {
                 NBTTagCompound nativeTag = NBTConverter.toNative(tag);
                 nativeTag.setString("id", block.getNbtId());
-                TileEntityUtils.setTileEntity(getWorld(), position, nativeTag);
-            }
-        }
-
-        BlockPos pos = new BlockPos(x, y, z);
-        if (notifyAndLight) {
-            if (newState.getLightOpacity() != oldState.getLightOpacity() || newState.getLightValue() != oldState.getLightValue())
-                world.checkLight(pos);
-        }
-        world.notifyBlockUpdate(pos, oldState, newState, 3);
-        if (notifyAndLight) {
-            world.notifyNeighborsRespectDebug(pos, oldState.getBlock(), true);
-
-            if (newState.hasComparatorInputOverride()) {
-                world.updateComparatorOutputLevel(pos, newState.getBlock());
+                TileEntityUtils.setTileEntity(world, position, nativeTag);
             }
         }
 
         return successful;
     }
 
+    @Nullable
+    @Override
+    public Operation commit() {
+        SectionWriteBatch.flush(getWorld());
+        return super.commit();
+    }
+
     @Override
     public int getBlockLightLevel(Vector position) {
         checkNotNull(position);
+        SectionWriteBatch.flush(getWorld());
         return getWorld().getLightFor(EnumSkyBlock.BLOCK, new BlockPos(position.getBlockX(), position.getBlockY(), position.getBlockZ()));
     }
 
@@ -210,6 +197,8 @@ class CarpetWorld extends AbstractWorld {
 
     @Override
     public boolean regenerate(Region region, EditSession editSession) {
+        // the chunks are replaced, pending writes must not hold on to the old ones
+        SectionWriteBatch.flush(getWorld());
         BaseBlock[] history = new BaseBlock[256 * (getMaxY() + 1)];
 
         for (Vector2D chunk : region.getChunks()) {
@@ -77,6 +77,7 @@ class CarpetWorldEdit {
     
     public void onStartTick() {
         ThreadSafeCache.getInstance().tickStart();
+        SectionWriteBatch.flushAll();
         if (firstTick) {
             firstTick = false;
             WorldEdit.getInstance().getEventBus().post(new PlatformReadyEvent());
@@ -0,0 +1,300 @@
+package carpet.worldedit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+import carpet.CarpetSettings;
+import carpet.helpers.OptimizedTNT;
+import carpet.helpers.LightingHooks;
+import carpet.helpers.PortalIndex;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import narcolepticfrog.rsmm.events.StateChangeEventDispatcher;
+import net.minecraft.block.Block;
+import net.minecraft.block.ITileEntityProvider;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import redstone.multimeter.helper.WorldHelper;
+
+/**
+ * Batched block writes for WorldEdit. Blocks are written straight into the chunk sections, while
+ * height maps, light checks, client updates and neighbour notifications are deferred until
+ * {@link #flush()}, where each runs once per chunk or once per changed position instead of once
+ * for every block set.
+ *
+ * <p>Blocks with tile entities still go through {@link Chunk#setBlockState}, which keeps the tile
+ * entity in sync with the block.</p>
+ */
+public class SectionWriteBatch {
+
+    private static final Map<World, SectionWriteBatch> batches = new WeakHashMap<>();
+
+    /**
+     * Get the batch of pending writes for a world.
+     *
+     * @param world the world
+     * @return the batch
+     */
+    public static SectionWriteBatch get(World world) {
+        return batches.computeIfAbsent(world, SectionWriteBatch::new);
+    }
+
+    /**
+     * Finish the pending writes in a world, if there are any.
+     *
+     * @param world the world
+     */
+    public static void flush(World world) {
+        SectionWriteBatch batch = batches.get(world);
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Finish the pending writes in all worlds, in case an edit never committed.
+     */
+    public static void flushAll() {
+        for (SectionWriteBatch batch : new ArrayList<>(batches.values())) {
+            batch.flush();
+        }
+    }
+
+    private final World world;
+    private final Long2ObjectMap<ChunkChanges> chunks = new Long2ObjectLinkedOpenHashMap<>();
+    // edits go through a region in order, so most writes hit the chunk of the previous one
+    private ChunkChanges last;
+
+    public SectionWriteBatch(World world) {
+        this.world = world;
+    }
+
+    public boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * Set a block without any updates, which are deferred until the batch is flushed.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @param state the new block state
+     * @param notifyAndLight whether to check light and notify neighbours when flushing
+     * @return whether the block changed
+     */
+    public boolean setBlockState(int x, int y, int z, IBlockState state, boolean notifyAndLight) {
+        if (y < 0 || y >= 256) {
+            return false;
+        }
+
+        ChunkChanges changes = getChanges(x >> 4, z >> 4);
+        Chunk chunk = changes.chunk;
+        ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+        ExtendedBlockStorage section = sections[y >> 4];
+        IBlockState oldState = section == Chunk.NULL_BLOCK_STORAGE ? Blocks.AIR.getDefaultState() : section.get(x & 15, y & 15, z & 15);
+
+        if (oldState == state) {
+            return false;
+        }
+
+        Block oldBlock = oldState.getBlock();
+        Block block = state.getBlock();
+
+        if (oldBlock instanceof ITileEntityProvider || block instanceof ITileEntityProvider) {
+            if (chunk.setBlockState(new BlockPos(x, y, z), state) == null) {
+                return false;
+            }
+        } else {
+            BlockPos pos = new BlockPos(x, y, z);
+            chunk.invalidatePrecipitationHeight(x, y, z);
+
+            if (section == Chunk.NULL_BLOCK_STORAGE) {
+                section = new ExtendedBlockStorage(y >> 4 << 4, world.provider.hasSkyLight());
+                sections[y >> 4] = section;
+                if (CarpetSettings.newLight) {
+                    LightingHooks.initSkylightForSection(world, chunk, section);
+                }
+            }
+            section.set(x & 15, y & 15, z & 15, state);
+            OptimizedTNT.blockChanges++;
+            if (oldBlock != block && (block == Blocks.PORTAL || oldBlock == Blocks.PORTAL)) {
+                PortalIndex.onBlockChanged(chunk, pos, block);
+            }
+
+            if (CarpetSettings.redstoneMultimeter) {
+                WorldHelper.getMultimeter().onBlockChange(world, pos, oldState, state);
+            }
+            // like Chunk.setBlockState, the old block is broken once the new one is in the world
+            if (oldBlock != block) {
+                oldBlock.breakBlock(world, pos, oldState);
+                if (section.get(x & 15, y & 15, z & 15).getBlock() != block) {
+                    return false;
+                }
+                block.onBlockAdded(world, pos, state);
+            }
+            chunk.markDirty();
+            if (CarpetSettings.redstoneMultimeterLegacy) {
+                StateChangeEventDispatcher.dispatchEvent(world, pos);
+            }
+
+            if (state.getLightOpacity() != oldState.getLightOpacity()) {
+                changes.heightMapChanged = true;
+            }
+        }
+
+        changes.sectionMask |= 1 << (y >> 4);
+        if (notifyAndLight) {
+            if (state.getLightOpacity() != oldState.getLightOpacity() || state.getLightValue() != oldState.getLightValue()) {
+                changes.mark(changes.light, x, y, z);
+            }
+            changes.markNeighbours(x, y, z, oldBlock);
+        }
+        return true;
+    }
+
+    private ChunkChanges getChanges(int chunkX, int chunkZ) {
+        if (last != null && last.chunk.x == chunkX && last.chunk.z == chunkZ) {
+            return last;
+        }
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        ChunkChanges changes = chunks.get(key);
+        if (changes == null) {
+            changes = new ChunkChanges(world.getChunk(chunkX, chunkZ));
+            chunks.put(key, changes);
+        }
+        return last = changes;
+    }
+
+    /**
+     * Run the deferred updates of all pending writes.
+     */
+    public void flush() {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        List<ChunkChanges> pending = new ArrayList<>(chunks.values());
+        chunks.clear();
+        last = null;
+
+        // height maps first, so light checks in one chunk see the final heights of its neighbours
+        for (ChunkChanges changes : pending) {
+            changes.updateHeightMap();
+        }
+        for (ChunkChanges changes : pending) {
+            changes.checkLight();
+        }
+        for (ChunkChanges changes : pending) {
+            changes.sendToClients();
+        }
+        for (ChunkChanges changes : pending) {
+            changes.notifyNeighbours();
+        }
+    }
+
+    private class ChunkChanges {
+
+        final Chunk chunk;
+        final int[] oldHeightMap;
+        boolean heightMapChanged;
+        int sectionMask;
+        // one bit per position, 64 longs per section, allocated on the first change in the section
+        final long[][] light = new long[16][];
+        final long[][] neighbours = new long[16][];
+        // the block before the first write to each position marked in neighbours, which neighbours are notified of
+        final Block[][] oldBlocks = new Block[16][];
+
+        ChunkChanges(Chunk chunk) {
+            this.chunk = chunk;
+            this.oldHeightMap = chunk.getHeightMap().clone();
+        }
+
+        void mark(long[][] bits, int x, int y, int z) {
+            long[] section = bits[y >> 4];
+            if (section == null) {
+                section = bits[y >> 4] = new long[64];
+            }
+            int index = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+            section[index >> 6] |= 1L << index;
+        }
+
+        void markNeighbours(int x, int y, int z, Block oldBlock) {
+            Block[] section = oldBlocks[y >> 4];
+            if (section == null) {
+                section = oldBlocks[y >> 4] = new Block[4096];
+            }
+            int index = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+            if (section[index] == null) {
+                section[index] = oldBlock;
+            }
+            mark(neighbours, x, y, z);
+        }
+
+        void updateHeightMap() {
+            if (!heightMapChanged) {
+                return;
+            }
+            chunk.generateHeightMap();
+            if (CarpetSettings.newLight) {
+                LightingHooks.relightSkylightColumns(world, chunk, oldHeightMap);
+            } else if (world.provider.hasSkyLight()) {
+                chunk.generateSkylightMap();
+            }
+        }
+
+        void checkLight() {
+            forEach(light, pos -> world.checkLight(pos));
+        }
+
+        void sendToClients() {
+            if (!(world instanceof WorldServer)) {
+                return;
+            }
+            PlayerChunkMapEntry entry = ((WorldServer) world).getPlayerChunkMap().getEntry(chunk.x, chunk.z);
+            if (entry != null && entry.isSentToPlayers()) {
+                entry.sendPacket(new SPacketChunkData(chunk, sectionMask));
+            }
+        }
+
+        void notifyNeighbours() {
+            forEach(neighbours, pos -> {
+                IBlockState state = chunk.getBlockState(pos);
+                Block oldBlock = oldBlocks[pos.getY() >> 4][(pos.getY() & 15) << 8 | (pos.getZ() & 15) << 4 | (pos.getX() & 15)];
+                world.notifyNeighborsRespectDebug(pos, oldBlock, true);
+                if (state.hasComparatorInputOverride()) {
+                    world.updateComparatorOutputLevel(pos, state.getBlock());
+                }
+            });
+        }
+
+        private void forEach(long[][] bits, Consumer<BlockPos> action) {
+            int baseX = chunk.x << 4;
+            int baseZ = chunk.z << 4;
+            for (int i = 0; i < 16; i++) {
+                long[] section = bits[i];
+                if (section == null) {
+                    continue;
+                }
+                for (int word = 0; word < 64; word++) {
+                    long remaining = section[word];
+                    while (remaining != 0) {
+                        int index = word << 6 | Long.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                        action.accept(new BlockPos(baseX + (index & 15), i << 4 | index >> 8, baseZ + (index >> 4 & 15)));
+                    }
+                }
+            }
+        }
+    }
+}
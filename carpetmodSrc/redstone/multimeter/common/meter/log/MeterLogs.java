@@ -1,35 +1,40 @@
 package redstone.multimeter.common.meter.log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
 
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 
+import redstone.multimeter.common.TickPhase;
 import redstone.multimeter.common.meter.event.EventType;
-import redstone.multimeter.util.ListUtils;
+import redstone.multimeter.common.meter.event.MeterEvent;
 import redstone.multimeter.util.NbtUtils;
 
+/**
+ * Event logs are stored in columns, one ring buffer per event type,
+ * sorted by tick and subtick. Logs arrive in order almost always, so
+ * adding a log and expiring old logs are both constant time, and no
+ * {@link EventLog} objects are created unless they are asked for.
+ */
 public class MeterLogs {
 
-	private final List<EventLog>[] eventLogs;
+	private final LogBuffer[] eventLogs;
 
 	private long count = 0;
 
 	public MeterLogs() {
-		@SuppressWarnings("unchecked")
-		List<EventLog>[] lists = new List[EventType.ALL.length];
+		this.eventLogs = new LogBuffer[EventType.ALL.length];
 
-		for (int index = 0; index < lists.length; index++) {
-			lists[index] = new ArrayList<>();
+		for (int index = 0; index < eventLogs.length; index++) {
+			eventLogs[index] = new LogBuffer();
 		}
-
-		this.eventLogs = lists;
 	}
 
 	public void clear() {
-		for (List<EventLog> logs : eventLogs) {
+		for (LogBuffer logs : eventLogs) {
 			logs.clear();
 		}
 
@@ -40,45 +45,34 @@ public class MeterLogs {
 		return count == 0;
 	}
 
-	private List<EventLog> getLogs(EventType type) {
+	private LogBuffer getLogs(EventType type) {
 		return eventLogs[type.getIndex()];
 	}
 
 	public void add(EventLog log) {
-		EventType type = log.getEvent().getType();
-		List<EventLog> logs = getLogs(type);
-
-		logs.add(getLastLogBefore(type, log.getTick(), log.getSubtick()) + 1, log);
+		MeterEvent event = log.getEvent();
+		add(log.getTick(), log.getSubtick(), log.getTickPhase(), event.getType(), event.getMetadata());
+	}
 
+	public void add(long tick, int subtick, TickPhase tickPhase, EventType type, int metadata) {
+		getLogs(type).add(tick, subtick, tickPhase, metadata);
 		count++;
 	}
 
 	public void clearOldLogs(long cutoff) {
-		for (List<EventLog> logs : eventLogs) {
-			while (!logs.isEmpty()) {
-				EventLog log = logs.get(0);
-
-				if (log.getTick() > cutoff) {
-					break;
-				}
-
-				logs.remove(0);
-			}
+		for (LogBuffer logs : eventLogs) {
+			count -= logs.removeUpTo(cutoff);
 		}
 	}
 
 	public EventLog getLog(EventType type, int index) {
-		if (index < 0) {
-			return null;
-		}
+		LogBuffer logs = getLogs(type);
 
-		List<EventLog> logs = getLogs(type);
-
-		if (index >= logs.size()) {
+		if (index < 0 || index >= logs.size) {
 			return null;
 		}
 
-		return logs.get(index);
+		return logs.get(type, index);
 	}
 
 	public int getLastLogBefore(EventType type, long tick) {
@@ -86,27 +80,7 @@ public class MeterLogs {
 	}
 
 	public int getLastLogBefore(EventType type, long tick, int subtick) {
-		List<EventLog> logs = getLogs(type);
-
-		if (logs.isEmpty() || !logs.get(0).isBefore(tick, subtick)) {
-			return -1;
-		}
-		if (logs.get(logs.size() - 1).isBefore(tick, subtick)) {
-			return logs.size() - 1;
-		}
-
-		int index = ListUtils.binarySearch(logs, event -> event.isBefore(tick, subtick));
-		EventLog log = logs.get(index);
-
-		while (!log.isBefore(tick, subtick)) {
-			if (index == 0) {
-				return -1;
-			}
-
-			log = logs.get(--index);
-		}
-
-		return index;
+		return getLogs(type).lastBefore(tick, subtick);
 	}
 
 	public EventLog getLastLogBefore(long tick) {
@@ -137,26 +111,16 @@ public class MeterLogs {
 		NBTTagCompound nbt = new NBTTagCompound();
 
 		for (EventType type : EventType.ALL) {
-			NBTTagList logs = toNbt(type);
+			LogBuffer logs = getLogs(type);
 
-			if (!logs.isEmpty()) {
-				nbt.setTag(type.getName(), logs);
+			if (logs.size > 0) {
+				nbt.setTag(type.getName(), logs.toNbt(type));
 			}
 		}
 
 		return nbt;
 	}
 
-	private NBTTagList toNbt(EventType type) {
-		NBTTagList list = new NBTTagList();
-
-		for (EventLog log : getLogs(type)) {
-			list.appendTag(log.toNbt());
-		}
-
-		return list;
-	}
-
 	public static Collection<EventLog> fromNbt(NBTTagCompound nbt) {
 		Collection<EventLog> logs = new ArrayList<>();
 
@@ -180,4 +144,167 @@ public class MeterLogs {
 
 		return logs;
 	}
+
+	private static class LogBuffer {
+
+		private static final int INITIAL_CAPACITY = 16;
+
+		private long[] ticks;
+		private int[] subticks;
+		private TickPhase[] tickPhases;
+		private int[] metadata;
+
+		/** physical index of the oldest log */
+		private int head;
+		private int size;
+
+		public LogBuffer() {
+			this.ticks = new long[INITIAL_CAPACITY];
+			this.subticks = new int[INITIAL_CAPACITY];
+			this.tickPhases = new TickPhase[INITIAL_CAPACITY];
+			this.metadata = new int[INITIAL_CAPACITY];
+		}
+
+		private int physical(int index) {
+			return (head + index) & (ticks.length - 1);
+		}
+
+		private boolean isBefore(int index, long tick, int subtick) {
+			int i = physical(index);
+			return ticks[i] == tick ? subticks[i] < subtick : ticks[i] < tick;
+		}
+
+		public void clear() {
+			Arrays.fill(tickPhases, null);
+			head = 0;
+			size = 0;
+		}
+
+		public void add(long tick, int subtick, TickPhase tickPhase, int data) {
+			if (size == ticks.length) {
+				grow();
+			}
+
+			int index = lastBefore(tick, subtick) + 1;
+
+			// logs are nearly always added in order, in which case nothing needs to move
+			for (int to = size; to > index; to--) {
+				int i = physical(to);
+				int j = physical(to - 1);
+
+				ticks[i] = ticks[j];
+				subticks[i] = subticks[j];
+				tickPhases[i] = tickPhases[j];
+				metadata[i] = metadata[j];
+			}
+
+			int i = physical(index);
+
+			ticks[i] = tick;
+			subticks[i] = subtick;
+			tickPhases[i] = tickPhase;
+			metadata[i] = data;
+
+			size++;
+		}
+
+		private void grow() {
+			int capacity = ticks.length * 2;
+
+			long[] newTicks = new long[capacity];
+			int[] newSubticks = new int[capacity];
+			TickPhase[] newTickPhases = new TickPhase[capacity];
+			int[] newMetadata = new int[capacity];
+
+			for (int index = 0; index < size; index++) {
+				int i = physical(index);
+
+				newTicks[index] = ticks[i];
+				newSubticks[index] = subticks[i];
+				newTickPhases[index] = tickPhases[i];
+				newMetadata[index] = metadata[i];
+			}
+
+			ticks = newTicks;
+			subticks = newSubticks;
+			tickPhases = newTickPhases;
+			metadata = newMetadata;
+			head = 0;
+		}
+
+		public int removeUpTo(long cutoff) {
+			int removed = 0;
+
+			while (size > 0 && ticks[head] <= cutoff) {
+				tickPhases[head] = null;
+				head = (head + 1) & (ticks.length - 1);
+				size--;
+				removed++;
+			}
+
+			return removed;
+		}
+
+		public int lastBefore(long tick, int subtick) {
+			if (size == 0 || !isBefore(0, tick, subtick)) {
+				return -1;
+			}
+			if (isBefore(size - 1, tick, subtick)) {
+				return size - 1;
+			}
+
+			// the first log is before and the last log is not
+			int low = 0;
+			int high = size - 1;
+
+			while (high - low > 1) {
+				int mid = (low + high) >>> 1;
+
+				if (isBefore(mid, tick, subtick)) {
+					low = mid;
+				} else {
+					high = mid;
+				}
+			}
+
+			return low;
+		}
+
+		public EventLog get(EventType type, int index) {
+			int i = physical(index);
+			return new EventLog(ticks[i], subticks[i], tickPhases[i], new MeterEvent(type, metadata[i]));
+		}
+
+		public NBTTagList toNbt(EventType type) {
+			NBTTagList list = new NBTTagList();
+
+			NBTBase typeNbt = type.toNbt();
+			TickPhase lastTickPhase = null;
+			NBTBase tickPhaseNbt = null;
+
+			for (int index = 0; index < size; index++) {
+				int i = physical(index);
+
+				// consecutive logs nearly always share the same tick phase
+				if (tickPhases[i] != lastTickPhase) {
+					lastTickPhase = tickPhases[i];
+					tickPhaseNbt = lastTickPhase.toNbt();
+				}
+
+				NBTTagCompound event = new NBTTagCompound();
+				event.setTag("type", typeNbt);
+				event.setInteger("metadata", metadata[i]);
+
+				NBTTagCompound nbt = new NBTTagCompound();
+				nbt.setTag("meter event", event);
+				nbt.setLong("tick", ticks[i]);
+				nbt.setInteger("subtick", subticks[i]);
+				nbt.setTag("tick phase", tickPhaseNbt);
+
+				list.appendTag(nbt);
+			}
+
+			return list;
+		}
+	}
 }
@@ -13,8 +13,6 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.function.Supplier;
 
-import com.google.common.base.Suppliers;
-
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
@@ -43,6 +41,7 @@ import redstone.multimeter.common.network.packets.ClearMeterGroupPacket;
 import redstone.multimeter.common.network.packets.MeterGroupDefaultPacket;
 import redstone.multimeter.common.network.packets.MeterGroupRefreshPacket;
 import redstone.multimeter.common.network.packets.MeterGroupSubscriptionPacket;
+import redstone.multimeter.server.meter.MeterIndex;
 import redstone.multimeter.server.meter.ServerMeterGroup;
 import redstone.multimeter.server.meter.ServerMeterPropertiesManager;
 import redstone.multimeter.server.meter.event.MeterEventPredicate;
@@ -58,6 +57,7 @@ public class Multimeter {
 	private final Map<UUID, ServerMeterGroup> subscriptions;
 	private final Set<ServerMeterGroup> activeMeterGroups;
 	private final Set<ServerMeterGroup> idleMeterGroups;
+	private final MeterIndex meterIndex;
 	private final ServerMeterPropertiesManager meterPropertiesManager;
 
 	public Options options;
@@ -68,6 +68,7 @@ public class Multimeter {
 		this.subscriptions = new HashMap<>();
 		this.activeMeterGroups = new HashSet<>();
 		this.idleMeterGroups = new HashSet<>();
+		this.meterIndex = new MeterIndex();
 		this.meterPropertiesManager = new ServerMeterPropertiesManager(this);
 
 		reloadOptions();
@@ -89,6 +90,10 @@ public class Multimeter {
 		return meterGroups.containsKey(name);
 	}
 
+	public MeterIndex getMeterIndex() {
+		return meterIndex;
+	}
+
 	public ServerMeterGroup getSubscription(EntityPlayerMP player) {
 		return subscriptions.get(player.getUniqueID());
 	}
@@ -146,6 +151,7 @@ public class Multimeter {
 		}
 
 		meterGroups.remove(meterGroup.getName(), meterGroup);
+		meterIndex.removeAll(meterGroup);
 
 		if (meterGroup.hasMeters()) {
 			notifyOwnerOfRemoval(meterGroup);
@@ -462,6 +468,10 @@ public class Multimeter {
 	}
 
 	public void logPowered(World world, BlockPos pos, IBlockState state) {
+		if (!isMetered(world, pos)) {
+			return;
+		}
+
 		tryLogEvent(world, pos, EventType.POWERED, () -> {
 			return state.getBlock().rsmm$isPowered(world, pos, state) ? 1 : 0;
 		}, (meterGroup, meter, event) -> {
@@ -474,6 +484,10 @@ public class Multimeter {
 	}
 
 	public void logActive(World world, BlockPos pos, IBlockState state) {
+		if (!isMetered(world, pos)) {
+			return;
+		}
+
 		tryLogEvent(world, pos, EventType.ACTIVE, () -> {
 			Block block = state.getBlock();
 			return block.rsmm$isMeterable() && ((Meterable)block).rsmm$isActive(world, pos, state) ? 1 : 0;
@@ -485,6 +499,10 @@ public class Multimeter {
 	}
 
 	public void moveMeters(World world, BlockPos blockPos, EnumFacing dir) {
+		if (!isMetered(world, blockPos)) {
+			return;
+		}
+
 		DimPos pos = new DimPos(world, blockPos);
 
 		for (ServerMeterGroup meterGroup : activeMeterGroups) {
@@ -499,6 +517,10 @@ public class Multimeter {
 	}
 
 	public void logPowerChange(World world, BlockPos pos, IBlockState oldState, IBlockState newState) {
+		if (!isMetered(world, pos)) {
+			return;
+		}
+
 		tryLogEvent(world, pos, EventType.POWER_CHANGE, () -> {
 			PowerSource block = (PowerSource)newState.getBlock();
 			int oldPower = block.rsmm$getPowerLevel(world, pos, oldState);
@@ -563,17 +585,33 @@ public class Multimeter {
 	}
 
 	private void tryLogEvent(World world, BlockPos pos, EventType type, int data, MeterEventPredicate predicate) {
-		tryLogEvent(world, pos, type, Suppliers.memoize(() -> data), predicate);
+		if (isMetered(world, pos)) {
+			tryLogEvent(world, pos, type, () -> data, predicate);
+		}
 	}
 
 	private void tryLogEvent(World world, BlockPos pos, EventType type, Supplier<Integer> data, MeterEventPredicate predicate) {
-		if (options.hasEventType(type)) {
-			for (ServerMeterGroup meterGroup : activeMeterGroups) {
-				meterGroup.tryLogEvent(world, pos, type, data, predicate);
+		if (!options.hasEventType(type)) {
+			return;
+		}
+
+		MeterIndex.Entry[] entries = meterIndex.get(world, pos);
+
+		if (entries != null) {
+			for (MeterIndex.Entry entry : entries) {
+				ServerMeterGroup meterGroup = entry.getMeterGroup();
+
+				if (!meterGroup.isIdle()) {
+					meterGroup.tryLogEvent(world, entry.getMeter(), type, data, predicate);
+				}
 			}
 		}
 	}
 
+	private boolean isMetered(World world, BlockPos pos) {
+		return !meterIndex.isEmpty() && meterIndex.get(world, pos) != null;
+	}
+
 	static {
 
 		NUMBER_FORMAT.setGroupingUsed(false);
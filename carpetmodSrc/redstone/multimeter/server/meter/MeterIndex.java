@@ -0,0 +1,195 @@
+package redstone.multimeter.server.meter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import redstone.multimeter.common.DimPos;
+import redstone.multimeter.common.meter.Meter;
+
+/**
+ * Server wide index of the positions metered by any meter group.
+ * Events fire far more often than there are meters, so lookups go
+ * through a per chunk mask of the sections that contain meters before
+ * the packed block position is looked up, and neither allocates.
+ */
+public class MeterIndex {
+
+	private final Map<String, DimensionIndex> dimensions;
+	private int size;
+
+	public MeterIndex() {
+		this.dimensions = new HashMap<>();
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the meters at the given position, or {@code null} if
+	 * the position is not metered by any meter group.
+	 */
+	public Entry[] get(World world, BlockPos pos) {
+		if (size == 0) {
+			return null;
+		}
+
+		DimensionIndex index = dimensions.get(world.provider.getDimensionType().getName());
+		return index == null ? null : index.get(pos);
+	}
+
+	public void add(ServerMeterGroup meterGroup, Meter meter) {
+		DimPos pos = meter.getPos();
+		DimensionIndex index = dimensions.computeIfAbsent(pos.getDimension(), key -> new DimensionIndex());
+
+		index.add(pos.getBlockPos(), new Entry(meterGroup, meter));
+		size++;
+	}
+
+	public void remove(ServerMeterGroup meterGroup, Meter meter) {
+		DimPos pos = meter.getPos();
+		DimensionIndex index = dimensions.get(pos.getDimension());
+
+		if (index != null && index.remove(pos.getBlockPos(), meterGroup)) {
+			size--;
+
+			if (index.isEmpty()) {
+				dimensions.remove(pos.getDimension());
+			}
+		}
+	}
+
+	public void removeAll(ServerMeterGroup meterGroup) {
+		for (Meter meter : meterGroup.getMeters()) {
+			remove(meterGroup, meter);
+		}
+	}
+
+	public static class Entry {
+
+		private final ServerMeterGroup meterGroup;
+		private final Meter meter;
+
+		private Entry(ServerMeterGroup meterGroup, Meter meter) {
+			this.meterGroup = meterGroup;
+			this.meter = meter;
+		}
+
+		public ServerMeterGroup getMeterGroup() {
+			return meterGroup;
+		}
+
+		public Meter getMeter() {
+			return meter;
+		}
+	}
+
+	private static class DimensionIndex {
+
+		private static final Entry[] EMPTY = new Entry[0];
+
+		/** bit n is set if section n of the chunk contains at least one meter */
+		private final Long2IntMap chunkMasks;
+		private final Long2IntMap sectionCounts;
+		private final Long2ObjectMap<Entry[]> byPos;
+
+		public DimensionIndex() {
+			this.chunkMasks = new Long2IntOpenHashMap();
+			this.sectionCounts = new Long2IntOpenHashMap();
+			this.byPos = new Long2ObjectOpenHashMap<>();
+		}
+
+		private static long chunkKey(BlockPos pos) {
+			return ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+		}
+
+		private static int sectionBit(BlockPos pos) {
+			return 1 << ((pos.getY() >> 4) & 15);
+		}
+
+		private static long sectionKey(BlockPos pos) {
+			return (chunkKey(pos) << 4) ^ ((pos.getY() >> 4) & 15);
+		}
+
+		public boolean isEmpty() {
+			return byPos.isEmpty();
+		}
+
+		public Entry[] get(BlockPos pos) {
+			if ((chunkMasks.get(chunkKey(pos)) & sectionBit(pos)) == 0) {
+				return null;
+			}
+
+			return byPos.get(pos.toLong());
+		}
+
+		public void add(BlockPos pos, Entry entry) {
+			long key = pos.toLong();
+			Entry[] entries = byPos.getOrDefault(key, EMPTY);
+
+			entries = Arrays.copyOf(entries, entries.length + 1);
+			entries[entries.length - 1] = entry;
+			byPos.put(key, entries);
+
+			long chunk = chunkKey(pos);
+			chunkMasks.put(chunk, chunkMasks.get(chunk) | sectionBit(pos));
+			sectionCounts.addTo(sectionKey(pos), 1);
+		}
+
+		public boolean remove(BlockPos pos, ServerMeterGroup meterGroup) {
+			long key = pos.toLong();
+			Entry[] entries = byPos.get(key);
+
+			if (entries == null) {
+				return false;
+			}
+
+			int index = 0;
+
+			while (index < entries.length && entries[index].meterGroup != meterGroup) {
+				index++;
+			}
+
+			if (index == entries.length) {
+				return false;
+			}
+
+			if (entries.length == 1) {
+				byPos.remove(key);
+			} else {
+				Entry[] newEntries = new Entry[entries.length - 1];
+
+				System.arraycopy(entries, 0, newEntries, 0, index);
+				System.arraycopy(entries, index + 1, newEntries, index, newEntries.length - index);
+				byPos.put(key, newEntries);
+			}
+
+			long section = sectionKey(pos);
+
+			if (sectionCounts.addTo(section, -1) == 1) {
+				sectionCounts.remove(section);
+
+				long chunk = chunkKey(pos);
+				int mask = chunkMasks.get(chunk) & ~sectionBit(pos);
+
+				if (mask == 0) {
+					chunkMasks.remove(chunk);
+				} else {
+					chunkMasks.put(chunk, mask);
+				}
+			}
+
+			return true;
+		}
+	}
+}
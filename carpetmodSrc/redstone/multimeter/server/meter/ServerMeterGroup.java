@@ -14,7 +14,6 @@ import java.util.function.Supplier;
 
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.EnumFacing;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
 import redstone.multimeter.common.DimPos;
@@ -66,6 +65,8 @@ public class ServerMeterGroup extends MeterGroup {
 
 	@Override
 	public void clear() {
+		multimeter.getMeterIndex().removeAll(this);
+
 		super.clear();
 
 		removedMeters.clear();
@@ -84,16 +85,20 @@ public class ServerMeterGroup extends MeterGroup {
 			return;
 		}
 
+		multimeter.getMeterIndex().remove(this, meter);
 		super.moveMeter(meter, newPos);
+		multimeter.getMeterIndex().add(this, meter);
 	}
 
 	@Override
 	protected void meterAdded(Meter meter) {
+		multimeter.getMeterIndex().add(this, meter);
 		meterUpdates.putIfAbsent(meter.getId(), meter.getProperties());
 	}
 
 	@Override
 	protected void meterRemoved(Meter meter) {
+		multimeter.getMeterIndex().remove(this, meter);
 		removedMeters.add(meter.getId());
 		meterUpdates.remove(meter.getId());
 	}
@@ -283,11 +288,8 @@ public class ServerMeterGroup extends MeterGroup {
 		meterIndicesChanged = false;
 	}
 
-	public void tryLogEvent(World world, BlockPos blockPos, EventType type, Supplier<Integer> data, MeterEventPredicate predicate) {
-		DimPos pos = new DimPos(world, blockPos);
-		Meter meter = getMeterAt(pos);
-
-		if (meter != null && meter.isMetering(type)) {
+	public void tryLogEvent(World world, Meter meter, EventType type, Supplier<Integer> data, MeterEventPredicate predicate) {
+		if (meter.isMetering(type)) {
 			MeterEvent event = new MeterEvent(type, data.get());
 
 			if (predicate.test(this, meter, event)) {
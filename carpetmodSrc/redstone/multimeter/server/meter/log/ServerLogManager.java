@@ -10,7 +10,6 @@ import net.minecraft.world.World;
 import redstone.multimeter.common.TickPhase;
 import redstone.multimeter.common.meter.Meter;
 import redstone.multimeter.common.meter.event.MeterEvent;
-import redstone.multimeter.common.meter.log.EventLog;
 import redstone.multimeter.common.meter.log.LogManager;
 import redstone.multimeter.common.network.packets.MeterLogsPacket;
 import redstone.multimeter.server.meter.ServerMeterGroup;
@@ -70,7 +69,7 @@ public class ServerLogManager extends LogManager {
 		int subtick = nextSubtick(tick);
 		TickPhase phase = meterGroup.getMultimeter().getServer().getTickPhase();
 
-		meter.getLogs().add(new EventLog(tick, subtick, phase, event));
+		meter.getLogs().add(tick, subtick, phase, event.getType(), event.getMetadata());
 
 		unsentLogs++;
 	}